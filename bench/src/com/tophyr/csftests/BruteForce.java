@@ -0,0 +1,160 @@
+package com.tophyr.csftests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The benchmarks' questions answered the slow way, straight from the node columns, so a fast answer that's wrong
+ * doesn't get measured. Nothing here goes through an index, the subtree table, a NodePredicate or a LiteralText.
+ */
+final class BruteForce {
+	
+	private BruteForce() {
+	}
+	
+	static int[] isA(HierarchyNodes nodes, String typeName) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int node = 0; node < nodes.size; node++) {
+			final HierarchyNodes.NodeClass cls = nodes.classes[nodes.classOf[node]];
+			boolean is = cls.name.equals(typeName);
+			for (String supertype : cls.supertypes)
+				is |= supertype.equals(typeName);
+			if (is)
+				found.add(node);
+		}
+		return toArray(found);
+	}
+	
+	static boolean matches(LiteralText mode, String text, String literal) {
+		if (text == null)
+			return false;
+		switch (mode) {
+			case EXACT:
+				return text.equals(literal);
+			case PREFIX:
+				return text.startsWith(literal);
+			default:
+				return text.contains(literal);
+		}
+	}
+	
+	static int[] findText(HierarchyNodes nodes, LiteralText mode, String literal, boolean includeHint) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int node = 0; node < nodes.size; node++)
+			if (matches(mode, nodes.text[node], literal) || (includeHint && matches(mode, nodes.hint[node], literal)))
+				found.add(node);
+		return toArray(found);
+	}
+	
+	static int[] matchesRegex(HierarchyNodes nodes, Pattern p, boolean includeHint) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int node = 0; node < nodes.size; node++)
+			if ((nodes.text[node] != null && p.matcher(nodes.text[node]).matches()) ||
+				(includeHint && nodes.hint[node] != null && p.matcher(nodes.hint[node]).matches()))
+				found.add(node);
+		return toArray(found);
+	}
+	
+	static int[] findId(HierarchyNodes nodes, int id) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int node = 0; node < nodes.size; node++)
+			if (nodes.id[node] == id && id != HierarchyNodes.NO_ID)
+				found.add(node);
+		return toArray(found);
+	}
+	
+	/**
+	 * Whether front is drawn over (or is) back, by walking parent links: a descendant over its ancestors, a later sibling's
+	 * subtree over an earlier one's. Across windows, the window walked first is the topmost.
+	 */
+	static boolean isInFrontOf(HierarchyNodes nodes, int front, int back) {
+		final List<Integer> frontPath = pathFromRoot(nodes, front), backPath = pathFromRoot(nodes, back);
+		if (!frontPath.get(0).equals(backPath.get(0)))
+			return frontPath.get(0) < backPath.get(0);
+		
+		// where one path runs out first, that node is the other's ancestor, and so behind it; otherwise the paths part at
+		// two siblings, and whichever was added later is drawn later
+		int i = 0;
+		while (i < frontPath.size() && i < backPath.size() && frontPath.get(i).equals(backPath.get(i)))
+			i++;
+		if (i == frontPath.size())
+			return i == backPath.size();
+		if (i == backPath.size())
+			return true;
+		return frontPath.get(i) > backPath.get(i);
+	}
+	
+	private static List<Integer> pathFromRoot(HierarchyNodes nodes, int node) {
+		List<Integer> path = new ArrayList<Integer>();
+		for (int n = node; n >= 0; n = nodes.parent[n])
+			path.add(n);
+		Collections.reverse(path);
+		return path;
+	}
+	
+	/** @return the nodes with at least one anchor wholly to their left */
+	static int[] leftOfAny(HierarchyNodes nodes, int[] anchors) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int node = 0; node < nodes.size; node++) {
+			boolean passes = false;
+			for (int anchor : anchors)
+				passes |= nodes.rects.right[anchor] <= nodes.rects.left[node];
+			if (passes)
+				found.add(node);
+		}
+		return toArray(found);
+	}
+	
+	/** @return the nodes with at least one anchor wholly below them */
+	static int[] belowAny(HierarchyNodes nodes, int[] anchors) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int node = 0; node < nodes.size; node++) {
+			boolean passes = false;
+			for (int anchor : anchors)
+				passes |= nodes.rects.top[anchor] >= nodes.rects.bottom[node];
+			if (passes)
+				found.add(node);
+		}
+		return toArray(found);
+	}
+	
+	/**
+	 * @return the visible nodes that intersect at least one visible anchor (as android.graphics.Rect.intersects has it)
+	 *         drawn over them if over, or under them if not
+	 */
+	static int[] overlappingAny(HierarchyNodes nodes, int[] anchors, boolean over) {
+		final RectTable r = nodes.rects;
+		List<Integer> found = new ArrayList<Integer>();
+		for (int node = 0; node < nodes.size; node++) {
+			boolean passes = false;
+			for (int anchor : anchors)
+				passes |= nodes.visibility[anchor] == HierarchyNodes.VISIBLE && nodes.visibility[node] == HierarchyNodes.VISIBLE &&
+						  r.left[anchor] < r.right[node] && r.left[node] < r.right[anchor] && r.top[anchor] < r.bottom[node] && r.top[node] < r.bottom[anchor] &&
+						  (over ? isInFrontOf(nodes, anchor, node) : isInFrontOf(nodes, node, anchor));
+			if (passes)
+				found.add(node);
+		}
+		return toArray(found);
+	}
+	
+	/** @return the nodes in both a and b, each in walk order */
+	static int[] both(HierarchyNodes nodes, int[] a, int[] b) {
+		boolean[] inA = new boolean[nodes.size];
+		for (int node : a)
+			inA[node] = true;
+		List<Integer> found = new ArrayList<Integer>();
+		for (int node : b)
+			if (inA[node])
+				found.add(node);
+		return toArray(found);
+	}
+	
+	static int[] toArray(List<Integer> list) {
+		int[] a = new int[list.size()];
+		for (int i = 0; i < a.length; i++)
+			a[i] = list.get(i);
+		return a;
+	}
+}
@@ -0,0 +1,252 @@
+package com.tophyr.csftests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The finder engine over synthetic hierarchies, on a plain JVM.
+ *
+ * Each benchmark is one finder operation as CSFActivityTestCase performs it once a snapshot has been captured; capture
+ * itself is measured by {@link #capture}, which builds the same node tables the main-thread walk does. Run every shape
+ * at every size to get scaling curves, and with -prof gc for allocation rates (see bench/build.xml). A shape of
+ * file:&lt;path&gt; benchmarks a hierarchy saved from a device (see {@link SnapshotFile}) instead, whatever the size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FinderBenchmark {
+	
+	@Param({ "DEEP", "WIDE", "LIST", "TEXT_HEAVY", "OVERLAP_HEAVY" })
+	public String shape;
+	
+	@Param({ "100", "1000", "10000", "50000" })
+	public int size;
+	
+	private static final long SEED = 42;
+	private static final int PAIRS = 1024;
+	private static final int ANCHORS = 8;
+	
+	private HierarchyNodes m_Nodes;
+	private String m_Text, m_Substring;
+	private Pattern m_Regex;
+	private int m_Id;
+	private int[] m_Fronts, m_Backs;
+	private int[] m_AnchorNodes;
+	private NodeCombination.Source m_Anchors;
+	
+	@Setup
+	public void setUp() throws IOException {
+		if (shape.startsWith("file:"))
+			m_Nodes = SnapshotFile.read(new File(shape.substring("file:".length()))).nodes;
+		else
+			m_Nodes = SyntheticHierarchy.build(SyntheticHierarchy.Shape.valueOf(shape), size, SEED);
+		final Random random = new Random(SEED);
+		
+		// look for text from the back half, so a first-match search can't stop straight away
+		m_Text = "";
+		for (int node = m_Nodes.size - 1; node >= m_Nodes.size / 2; node--) {
+			if (m_Nodes.text[node] != null && m_Nodes.text[node].length() > 4) {
+				m_Text = m_Nodes.text[node];
+				break;
+			}
+		}
+		m_Substring = m_Text.substring(m_Text.length() / 4, m_Text.length() * 3 / 4);
+		m_Regex = Pattern.compile(".*" + Pattern.quote(m_Substring) + ".*");
+		m_Id = m_Nodes.id[m_Nodes.size * 3 / 4];
+		
+		m_Fronts = new int[PAIRS];
+		m_Backs = new int[PAIRS];
+		for (int i = 0; i < PAIRS; i++) {
+			m_Fronts[i] = random.nextInt(m_Nodes.size);
+			m_Backs[i] = random.nextInt(m_Nodes.size);
+		}
+		
+		final int[] anchors = new int[ANCHORS];
+		for (int i = 0; i < ANCHORS; i++)
+			anchors[i] = random.nextInt(m_Nodes.size);
+		m_AnchorNodes = anchors;
+		m_Anchors = new NodeCombination.Source() {
+			@Override
+			NodeCombination resolve(HierarchyNodes nodes) {
+				return new NodeCombination(nodes, anchors, 1, Integer.MAX_VALUE);
+			}
+		};
+	}
+	
+	private int[] query(NodePredicate... stages) {
+		List<NodePredicate> chain = Arrays.asList(stages);
+		if (!NodeQuery.prepare(m_Nodes, chain))
+			throw new IllegalStateException("Benchmark stage couldn't be prepared.");
+		return NodeQuery.evaluate(m_Nodes, null, chain, Integer.MAX_VALUE, null);
+	}
+	
+	private int[] plannedQuery(NodePredicate... stages) {
+		QueryPlan plan = QueryPlan.prepare(m_Nodes, Arrays.asList(stages), null);
+		if (plan == null)
+			throw new IllegalStateException("Benchmark stage couldn't be prepared.");
+		return plan.evaluate(null, Integer.MAX_VALUE, null);
+	}
+	
+	@Benchmark
+	public HierarchyNodes capture() {
+		if (shape.startsWith("file:"))
+			return copy(m_Nodes);
+		return SyntheticHierarchy.build(SyntheticHierarchy.Shape.valueOf(shape), size, SEED);
+	}
+	
+	// a saved hierarchy, collected node by node as the walk would
+	private static HierarchyNodes copy(HierarchyNodes nodes) {
+		HierarchyNodes.Builder builder = new HierarchyNodes.Builder();
+		for (HierarchyNodes.NodeClass cls : nodes.classes)
+			builder.addClass(cls.name, cls.supertypes);
+		final RectTable rects = nodes.rects;
+		for (int i = 0; i < nodes.size; i++)
+			builder.add(nodes.parent[i], nodes.classOf[i], nodes.id[i], nodes.text[i], nodes.hint[i], nodes.visibility[i],
+					rects.left[i], rects.top[i], rects.right[i], rects.bottom[i]);
+		return builder.build();
+	}
+	
+	@Benchmark
+	public int[] isButton() {
+		return query(NodePredicate.isA(SyntheticHierarchy.BUTTON));
+	}
+	
+	@Benchmark
+	public int[] exactText() {
+		return query(NodePredicate.isA(SyntheticHierarchy.TEXT_VIEW), NodePredicate.literalText(LiteralText.EXACT, m_Text, false));
+	}
+	
+	@Benchmark
+	public int[] containsSubstringWithHint() {
+		return query(NodePredicate.isA(SyntheticHierarchy.TEXT_VIEW), NodePredicate.literalText(LiteralText.CONTAINS, m_Substring, true));
+	}
+	
+	@Benchmark
+	public int[] matchesRegex() {
+		return query(NodePredicate.isA(SyntheticHierarchy.TEXT_VIEW), NodePredicate.matchesRegex(m_Regex, false));
+	}
+	
+	@Benchmark
+	public TextIndex buildTextIndex() {
+		return new TextIndex(m_Nodes.text);
+	}
+	
+	@Benchmark
+	public int[] containsSubstringIndexed() {
+		return m_Nodes.findText(LiteralText.CONTAINS, m_Substring, true);
+	}
+	
+	@Benchmark
+	public int[] findId() {
+		return m_Nodes.findId(m_Id);
+	}
+	
+	@Benchmark
+	public void isInFrontOf(Blackhole bh) {
+		for (int i = 0; i < PAIRS; i++)
+			bh.consume(m_Nodes.isInFrontOf(m_Fronts[i], m_Backs[i]));
+	}
+	
+	@Benchmark
+	public int[] toLeftOfAny() {
+		return query(NodePredicate.combination(m_Anchors, NodePairTest.POTENTIAL_LEFT_OF, false));
+	}
+	
+	@Benchmark
+	public int[] belowAny() {
+		return query(NodePredicate.combination(m_Anchors, NodePairTest.POTENTIAL_BELOW, false));
+	}
+	
+	// geometry written first, as toLeftOf(any(...), isButton(all())) would be if the type check were added last
+	@Benchmark
+	public int[] buttonsLeftOfAnyAsGiven() {
+		return query(NodePredicate.combination(m_Anchors, NodePairTest.POTENTIAL_LEFT_OF, false), NodePredicate.isA(SyntheticHierarchy.BUTTON));
+	}
+	
+	@Benchmark
+	public int[] buttonsLeftOfAnyPlanned() {
+		return plannedQuery(NodePredicate.combination(m_Anchors, NodePairTest.POTENTIAL_LEFT_OF, false), NodePredicate.isA(SyntheticHierarchy.BUTTON));
+	}
+	
+	@Benchmark
+	public int[] coveredByAny() {
+		return query(NodePredicate.combination(m_Anchors, NodePairTest.overlaps(false), true));
+	}
+	
+	@Benchmark
+	public OverlapGrid buildOverlapGrid() {
+		return new OverlapGrid(m_Nodes.rects);
+	}
+	
+	// every benchmark's answer against the same question asked of BruteForce
+	private void check() {
+		check("isButton", BruteForce.isA(m_Nodes, SyntheticHierarchy.BUTTON), isButton());
+		final int[] textViews = BruteForce.isA(m_Nodes, SyntheticHierarchy.TEXT_VIEW);
+		check("exactText", BruteForce.both(m_Nodes, textViews, BruteForce.findText(m_Nodes, LiteralText.EXACT, m_Text, false)), exactText());
+		check("containsSubstringWithHint", BruteForce.both(m_Nodes, textViews, BruteForce.findText(m_Nodes, LiteralText.CONTAINS, m_Substring, true)),
+				containsSubstringWithHint());
+		check("matchesRegex", BruteForce.both(m_Nodes, textViews, BruteForce.matchesRegex(m_Nodes, m_Regex, false)), matchesRegex());
+		check("containsSubstringIndexed", BruteForce.findText(m_Nodes, LiteralText.CONTAINS, m_Substring, true), containsSubstringIndexed());
+		check("findId", BruteForce.findId(m_Nodes, m_Id), findId());
+		for (int i = 0; i < PAIRS; i++)
+			if (BruteForce.isInFrontOf(m_Nodes, m_Fronts[i], m_Backs[i]) != m_Nodes.isInFrontOf(m_Fronts[i], m_Backs[i]))
+				throw new AssertionError(String.format("isInFrontOf disagrees with brute force for nodes %d and %d", m_Fronts[i], m_Backs[i]));
+		check("toLeftOfAny", BruteForce.leftOfAny(m_Nodes, m_AnchorNodes), toLeftOfAny());
+		check("belowAny", BruteForce.belowAny(m_Nodes, m_AnchorNodes), belowAny());
+		final int[] buttonsLeftOf = BruteForce.both(m_Nodes, BruteForce.leftOfAny(m_Nodes, m_AnchorNodes), BruteForce.isA(m_Nodes, SyntheticHierarchy.BUTTON));
+		check("buttonsLeftOfAnyAsGiven", buttonsLeftOf, buttonsLeftOfAnyAsGiven());
+		check("buttonsLeftOfAnyPlanned", buttonsLeftOf, buttonsLeftOfAnyPlanned());
+		check("coveredByAny", BruteForce.overlappingAny(m_Nodes, m_AnchorNodes, false), coveredByAny());
+	}
+	
+	private void check(String benchmark, int[] expected, int[] actual) {
+		if (!Arrays.equals(expected, actual))
+			throw new AssertionError(String.format("%s disagrees with brute force on %s, %d nodes: %d found, %d expected",
+					benchmark, shape, m_Nodes.size, actual.length, expected.length));
+	}
+	
+	// a quick look without the JMH harness, e.g. from an IDE: one pass of every benchmark at every size, over every
+	// synthetic shape or the file:<path> shapes given, each answer checked against BruteForce first
+	public static void main(String[] args) throws IOException {
+		List<String> shapes = new ArrayList<String>(Arrays.asList(args));
+		if (shapes.isEmpty())
+			for (SyntheticHierarchy.Shape s : SyntheticHierarchy.Shape.values())
+				shapes.add(s.name());
+		
+		for (String s : shapes) {
+			for (int n : s.startsWith("file:") ? new int[] { 0 } : new int[] { 100, 1000, 10000, 50000 }) {
+				FinderBenchmark b = new FinderBenchmark();
+				b.shape = s;
+				b.size = n;
+				b.setUp();
+				b.check();
+				System.out.println(String.format("%-13s %6d nodes: %d buttons, %d exact, %d contains, %d regex, %d left of, %d covered, %d/%d buttons left of",
+						s, b.m_Nodes.size, b.isButton().length, b.exactText().length, b.containsSubstringWithHint().length,
+						b.matchesRegex().length, b.toLeftOfAny().length, b.coveredByAny().length, b.buttonsLeftOfAnyAsGiven().length,
+						b.buttonsLeftOfAnyPlanned().length));
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.tophyr.csftests;
+
+import java.util.Random;
+
+/**
+ * Builds {@link HierarchyNodes} shaped like real screens, without a device, for benchmarking the finder.
+ *
+ * Every shape is deterministic for a given size and seed, and lays its views out on a 1080x1920 screen the way the
+ * corresponding layout would, so the directional and overlap filters see realistic geometry.
+ */
+final class SyntheticHierarchy {
+	
+	static final int SCREEN_WIDTH = 1080, SCREEN_HEIGHT = 1920;
+	
+	static final String VIEW = "android.view.View";
+	static final String VIEW_GROUP = "android.view.ViewGroup";
+	static final String FRAME_LAYOUT = "android.widget.FrameLayout";
+	static final String LINEAR_LAYOUT = "android.widget.LinearLayout";
+	static final String LIST_VIEW = "android.widget.ListView";
+	static final String TEXT_VIEW = "android.widget.TextView";
+	static final String BUTTON = "android.widget.Button";
+	static final String EDIT_TEXT = "android.widget.EditText";
+	static final String IMAGE_VIEW = "android.widget.ImageView";
+	
+	enum Shape {
+		/** Layouts nested inside layouts, a couple of children each, like an over-wrapped form. */
+		DEEP,
+		/** One layout with every view as a direct child, tiled across the screen. */
+		WIDE,
+		/** A list of identical rows: an icon, a title, a subtitle and a button each. */
+		LIST,
+		/** Rows of labels and fields, nearly all with text and a good share with hints. */
+		TEXT_HEAVY,
+		/** Stacked frames of large, randomly placed views that mostly overlap each other. */
+		OVERLAP_HEAVY
+	}
+	
+	// ids are handed out from here so lookups have something to find
+	static final int FIRST_ID = 0x7f010000;
+	
+	private final HierarchyNodes.Builder m_Builder = new HierarchyNodes.Builder();
+	private final Random m_Random;
+	private final int m_Size;
+	private final int m_View, m_ViewGroup, m_FrameLayout, m_LinearLayout, m_ListView;
+	private final int m_TextView, m_Button, m_EditText, m_ImageView;
+	
+	private SyntheticHierarchy(int size, long seed) {
+		m_Size = size;
+		m_Random = new Random(seed);
+		
+		m_View = m_Builder.addClass(VIEW, new String[] { "java.lang.Object" });
+		m_ViewGroup = m_Builder.addClass(VIEW_GROUP, new String[] { VIEW, "java.lang.Object" });
+		m_FrameLayout = m_Builder.addClass(FRAME_LAYOUT, new String[] { VIEW_GROUP, VIEW, "java.lang.Object" });
+		m_LinearLayout = m_Builder.addClass(LINEAR_LAYOUT, new String[] { VIEW_GROUP, VIEW, "java.lang.Object" });
+		m_ListView = m_Builder.addClass(LIST_VIEW, new String[] { "android.widget.AbsListView", "android.widget.AdapterView", VIEW_GROUP, VIEW, "java.lang.Object" });
+		m_TextView = m_Builder.addClass(TEXT_VIEW, new String[] { VIEW, "java.lang.Object" });
+		m_Button = m_Builder.addClass(BUTTON, new String[] { TEXT_VIEW, VIEW, "java.lang.Object" });
+		m_EditText = m_Builder.addClass(EDIT_TEXT, new String[] { TEXT_VIEW, VIEW, "java.lang.Object" });
+		m_ImageView = m_Builder.addClass(IMAGE_VIEW, new String[] { VIEW, "java.lang.Object" });
+	}
+	
+	/** @return about size nodes (never fewer, and at most one row's worth more) of the given shape */
+	static HierarchyNodes build(Shape shape, int size, long seed) {
+		SyntheticHierarchy h = new SyntheticHierarchy(size, seed);
+		final int root = h.add(-1, h.m_FrameLayout, HierarchyNodes.NO_ID, null, null, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+		
+		switch (shape) {
+		case DEEP:
+			h.buildDeep(root);
+			break;
+		case WIDE:
+			h.buildWide(root);
+			break;
+		case LIST:
+			h.buildList(root);
+			break;
+		case TEXT_HEAVY:
+			h.buildForm(root);
+			break;
+		case OVERLAP_HEAVY:
+			h.buildOverlapping(root);
+			break;
+		}
+		
+		return h.m_Builder.build();
+	}
+	
+	private boolean full() {
+		return m_Builder.size() >= m_Size;
+	}
+	
+	private int add(int parent, int cls, int id, String text, String hint, int left, int top, int right, int bottom) {
+		return m_Builder.add(parent, cls, id, text, hint, HierarchyNodes.VISIBLE, left, top, right, bottom);
+	}
+	
+	private int nextId() {
+		return FIRST_ID + m_Builder.size();
+	}
+	
+	// chains of 40 nested layouts, each with a label beside the next layout, side by side across the screen
+	private void buildDeep(int root) {
+		final int chains = Math.max(1, m_Size / 80);
+		final int chainWidth = Math.max(1, SCREEN_WIDTH / chains);
+		for (int chain = 0; !full(); chain++) {
+			int left = (chain % chains) * chainWidth, top = 0, right = left + chainWidth, bottom = SCREEN_HEIGHT;
+			int node = root;
+			for (int depth = 0; depth < 40 && !full(); depth++) {
+				node = add(node, m_LinearLayout, nextId(), null, null, left, top, right, bottom);
+				add(node, m_TextView, nextId(), "Label " + m_Builder.size(), null, left, top, right, top + 40);
+				top += 40;
+				bottom = Math.max(top, bottom - 4);
+			}
+		}
+	}
+	
+	private void buildWide(int root) {
+		final int columns = Math.max(1, (int)Math.sqrt(m_Size));
+		final int cellWidth = Math.max(1, SCREEN_WIDTH / columns), cellHeight = Math.max(1, SCREEN_HEIGHT / columns);
+		for (int i = 0; !full(); i++) {
+			final int left = (i % columns) * cellWidth, top = (i / columns) * cellHeight;
+			final int cls = i % 3 == 0 ? m_Button : i % 3 == 1 ? m_ImageView : m_TextView;
+			add(root, cls, nextId(), cls == m_ImageView ? null : "Item " + i, null, left, top, left + cellWidth, top + cellHeight);
+		}
+	}
+	
+	private void buildList(int root) {
+		final int list = add(root, m_ListView, FIRST_ID, null, null, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+		
+		// rows reuse the same few ids, as they would coming out of an adapter
+		for (int row = 0; !full(); row++) {
+			final int top = row * 120, bottom = top + 120;
+			final int r = add(list, m_LinearLayout, FIRST_ID + 1, null, null, 0, top, SCREEN_WIDTH, bottom);
+			add(r, m_ImageView, FIRST_ID + 2, null, null, 0, top, 120, bottom);
+			add(r, m_TextView, FIRST_ID + 3, "Title " + row, null, 120, top, 840, top + 70);
+			add(r, m_TextView, FIRST_ID + 4, "Subtitle for row " + row, null, 120, top + 70, 840, bottom);
+			add(r, m_Button, FIRST_ID + 5, row % 2 == 0 ? "Open" : "Delete", null, 840, top, SCREEN_WIDTH, bottom);
+		}
+	}
+	
+	private void buildForm(int root) {
+		for (int row = 0; !full(); row++) {
+			final int top = row * 96, bottom = top + 96;
+			final int r = add(root, m_LinearLayout, nextId(), null, null, 0, top, SCREEN_WIDTH, bottom);
+			add(r, m_TextView, nextId(), "Field number " + row + " of a rather long form, with a long label", null, 0, top, 400, bottom);
+			add(r, m_EditText, nextId(), row % 3 == 0 ? "" : "value " + row, "Enter value " + row, 400, top, 1000, bottom);
+			add(r, m_TextView, nextId(), row % 5 == 0 ? "Required" : "", null, 1000, top, SCREEN_WIDTH, bottom);
+		}
+	}
+	
+	private void buildOverlapping(int root) {
+		while (!full()) {
+			final int frame = add(root, m_FrameLayout, nextId(), null, null, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+			for (int i = 0; i < 16 && !full(); i++) {
+				final int width = 200 + m_Random.nextInt(600), height = 200 + m_Random.nextInt(600);
+				final int left = m_Random.nextInt(SCREEN_WIDTH - width), top = m_Random.nextInt(SCREEN_HEIGHT - height);
+				final int cls = m_Random.nextInt(4) == 0 ? m_Button : m_ViewGroup;
+				add(frame, cls, nextId(), cls == m_Button ? "Layer " + m_Builder.size() : null, null, left, top, left + width, top + height);
+			}
+		}
+	}
+}
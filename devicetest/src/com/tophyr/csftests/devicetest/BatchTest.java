@@ -0,0 +1,39 @@
+package com.tophyr.csftests.devicetest;
+
+import android.widget.TextView;
+
+import com.tophyr.csftests.Batch;
+import com.tophyr.csftests.BatchQuery;
+import com.tophyr.csftests.CSFActivityTestCase;
+
+public class BatchTest extends CSFActivityTestCase<LabelActivity> {
+	
+	public BatchTest() {
+		super(LabelActivity.class);
+	}
+	
+	// each check searches the screen as it is then, not as the last check found it
+	public void testCheckingAgainSeesTheChangedScreen() {
+		getActivity();
+		
+		final Batch batch = batch();
+		final BatchQuery<TextView> before = batch.findOrEmpty(exactText(LabelActivity.BEFORE));
+		final BatchQuery<TextView> after = batch.findOrEmpty(exactText(LabelActivity.AFTER));
+		
+		batch.check();
+		final TextView label = before.getView();
+		assertNotNull(label);
+		assertTrue(after.getViews().isEmpty());
+		
+		getInstrumentation().runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				label.setText(LabelActivity.AFTER);
+			}
+		});
+		
+		batch.check();
+		assertTrue(before.getViews().isEmpty());
+		assertSame(label, after.getView());
+	}
+}
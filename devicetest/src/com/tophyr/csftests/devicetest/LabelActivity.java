@@ -0,0 +1,20 @@
+package com.tophyr.csftests.devicetest;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.widget.TextView;
+
+/** A single label, for tests that change what it says. */
+public class LabelActivity extends Activity {
+	
+	public static final String BEFORE = "Before", AFTER = "After";
+	
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		
+		TextView label = new TextView(this);
+		label.setText(BEFORE);
+		setContentView(label);
+	}
+}
@@ -0,0 +1,61 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HierarchyNodesTest {
+	
+	private static List<Integer> pathFromRoot(HierarchyNodes nodes, int node) {
+		List<Integer> path = new ArrayList<Integer>();
+		for (int n = node; n >= 0; n = nodes.parent[n])
+			path.add(n);
+		Collections.reverse(path);
+		return path;
+	}
+	
+	// by parent links: a descendant is drawn over its ancestors, a later sibling's subtree over an earlier one's, and
+	// the window walked first over the others
+	private static boolean isInFrontOf(HierarchyNodes nodes, int front, int back) {
+		final List<Integer> frontPath = pathFromRoot(nodes, front), backPath = pathFromRoot(nodes, back);
+		int i = 0;
+		while (i < frontPath.size() && i < backPath.size() && frontPath.get(i).equals(backPath.get(i)))
+			i++;
+		if (i == 0)
+			return frontPath.get(0) < backPath.get(0);
+		if (i == frontPath.size())
+			return i == backPath.size();
+		if (i == backPath.size())
+			return true;
+		return frontPath.get(i) > backPath.get(i);
+	}
+	
+	@Test
+	public void ancestorsFollowParentLinks() {
+		final HierarchyNodes nodes = RandomHierarchy.build(300, 6);
+		for (int a = 0; a < nodes.size; a++)
+			for (int d = 0; d < nodes.size; d++)
+				assertEquals(String.format("nodes %d and %d", a, d), a != d && pathFromRoot(nodes, d).contains(a), nodes.isAncestor(a, d));
+	}
+	
+	@Test
+	public void frontFollowsDrawingOrderAndWindowOrder() {
+		for (int count : new int[] { 1, 300 }) {
+			final HierarchyNodes nodes = RandomHierarchy.build(count, count + 7);
+			int roots = 0;
+			for (int node = 0; node < nodes.size; node++)
+				if (nodes.parent[node] < 0)
+					roots++;
+			assertTrue("only one window in " + count + " nodes", count == 1 || roots > 1);
+			
+			for (int front = 0; front < nodes.size; front++)
+				for (int back = 0; back < nodes.size; back++)
+					assertEquals(String.format("nodes %d and %d of %d", front, back, count), isInFrontOf(nodes, front, back), nodes.isInFrontOf(front, back));
+		}
+	}
+}
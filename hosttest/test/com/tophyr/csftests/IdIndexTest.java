@@ -0,0 +1,104 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IdIndexTest {
+	
+	private static final int NO_ID = -1;
+	
+	// ids the way a screen has them: mostly unset, resource ids shared by every row of a list, and some unique ones
+	private static int[] ids(int count, long seed) {
+		Random random = new Random(seed);
+		int[] ids = new int[count];
+		for (int i = 0; i < count; i++) {
+			switch (random.nextInt(4)) {
+				case 0:
+					ids[i] = NO_ID;
+					break;
+				case 1:
+					ids[i] = 0x7f080000 + random.nextInt(5);
+					break;
+				default:
+					ids[i] = 0x7f090000 + random.nextInt(count * 4);
+			}
+		}
+		return ids;
+	}
+	
+	private static int[] find(int[] ids, int id) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int i = 0; i < ids.length; i++)
+			if (ids[i] == id && id != NO_ID)
+				found.add(i);
+		int[] a = new int[found.size()];
+		for (int i = 0; i < a.length; i++)
+			a[i] = found.get(i);
+		return a;
+	}
+	
+	@Test
+	public void findMatchesEveryId() {
+		for (int count : new int[] { 0, 1, 300, 3000 }) {
+			final int[] ids = ids(count, count);
+			IdIndex index = new IdIndex(ids, NO_ID);
+			// every id there is, and the ones either side of it, which mostly aren't
+			for (int i = 0; i < count; i++)
+				for (int id = ids[i] - 1; id <= ids[i] + 1; id++)
+					assertArrayEquals(String.format("id 0x%x in %d ids", id, count), find(ids, id), index.find(id));
+			assertEquals(0, index.find(NO_ID).length);
+			assertEquals(0, index.find(0).length);
+		}
+	}
+	
+	@Test
+	public void collidingIdsStayApart() {
+		// ids that differ only above the bits a small table hashes on, and the ends of the int range
+		int[] ids = new int[64];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = i % 8 == 0 ? Integer.MIN_VALUE + i : i % 8 == 1 ? Integer.MAX_VALUE - i : (i % 5) << 24;
+		IdIndex index = new IdIndex(ids, NO_ID);
+		for (int id : ids)
+			assertArrayEquals(String.format("id 0x%x", id), find(ids, id), index.find(id));
+	}
+	
+	@Test
+	public void nodesFindTheirOwnIds() {
+		HierarchyNodes.Builder b = new HierarchyNodes.Builder();
+		final int view = b.addClass("android.view.View", new String[0]);
+		final int[] ids = ids(300, 1);
+		for (int i = 0; i < ids.length; i++)
+			b.add(i == 0 ? -1 : i - 1, view, ids[i], null, null, HierarchyNodes.VISIBLE, 0, 0, 10, 10);
+		HierarchyNodes nodes = b.build();
+		for (int id : ids)
+			assertArrayEquals(String.format("id 0x%x", id), find(ids, id), nodes.findId(id));
+	}
+	
+	@Test
+	public void windowsFindTheirOwnViewsFirst() {
+		final HierarchyNodes nodes = RandomHierarchy.build(300, 2);
+		for (int window = -1; window < nodes.size; window++) {
+			if (window >= 0 && nodes.parent[window] >= 0)
+				continue;
+			for (int id = 0x7f080000 - 1; id <= 0x7f080000 + 300 / 4 + 1; id++) {
+				// the first match whose parent links lead to window, else the first anywhere
+				final int[] matches = find(nodes.id, id);
+				int expected = matches.length == 0 ? -1 : matches[0];
+				for (int i = matches.length - 1; i >= 0; i--) {
+					int root = matches[i];
+					while (nodes.parent[root] >= 0)
+						root = nodes.parent[root];
+					if (root == window)
+						expected = matches[i];
+				}
+				assertEquals(String.format("id 0x%x in window %d", id, window), expected, nodes.findId(id, window));
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NodeCombinationTest {
+	
+	private static final NodePairTest[] EDGE_TESTS = {
+		NodePairTest.POTENTIAL_LEFT_OF, NodePairTest.POTENTIAL_RIGHT_OF, NodePairTest.POTENTIAL_ABOVE, NodePairTest.POTENTIAL_BELOW,
+	};
+	
+	// any, all, none, exactly one, and bounds either side of the middle
+	private static int[][] bounds(int potentials) {
+		return new int[][] {
+			{ 1, Integer.MAX_VALUE }, { potentials, Integer.MAX_VALUE }, { 0, 0 }, { 1, 1 }, { 0, potentials / 2 },
+			{ potentials / 2, potentials }, { potentials / 3, potentials * 2 / 3 }, { potentials + 1, Integer.MAX_VALUE },
+		};
+	}
+	
+	@Test
+	public void sortedEdgesAgreeWithEveryPair() {
+		for (int count : new int[] { 1, 300, 3000 }) {
+			final HierarchyNodes nodes = RandomHierarchy.build(count, count);
+			final Random random = new Random(count);
+			for (int potentialCount : new int[] { 0, 1, 2, 7, 64, 400 }) {
+				// drawn with repeats, so some edges are shared
+				final int[] potentials = new int[potentialCount];
+				for (int i = 0; i < potentialCount; i++)
+					potentials[i] = random.nextInt(nodes.size);
+				
+				for (int[] bound : bounds(potentialCount)) {
+					NodeCombination combination = new NodeCombination(nodes, potentials, bound[0], bound[1]);
+					for (NodePairTest test : EDGE_TESTS) {
+						final NodePairTest.EdgeComparison edges = (NodePairTest.EdgeComparison)test;
+						final int[] sorted = combination.sortedEdges(edges, nodes);
+						for (int specimen = 0; specimen < nodes.size; specimen++)
+							assertEquals(String.format("specimen %d of %d against %d potentials, %d to %d", specimen, count, potentialCount, bound[0], bound[1]),
+									combination.matches(test, nodes, specimen), combination.matchesSorted(edges, sorted, nodes, specimen));
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class NodeStageTest {
+	
+	@Test
+	public void stagesChainTheirDescriptions() {
+		String description = "views";
+		for (NodeStage stage : Arrays.asList(NodeStage.isA(RandomHierarchy.TEXT_VIEW), NodeStage.literalText(LiteralText.EXACT, "OK", true),
+				NodeStage.matchesRegex(Pattern.compile("O.*"), false)))
+			description = stage.describe(description);
+		assertEquals("views that are TextViews that are exactly (or whose hints are exactly) 'OK' that match 'O.*'", description);
+	}
+	
+	@Test
+	public void combinationsReadAsTheirBounds() {
+		assertEquals("all of buttons", NodeStage.describeCombination(3, 3, 3, "buttons"));
+		assertEquals("any of buttons", NodeStage.describeCombination(1, 3, 3, "buttons"));
+		assertEquals("at least 2 of buttons", NodeStage.describeCombination(2, Integer.MAX_VALUE, 3, "buttons"));
+		assertEquals("at least 2 but at most 4 of buttons", NodeStage.describeCombination(2, 4, 5, "buttons"));
+	}
+}
@@ -0,0 +1,97 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class OverlapGridTest {
+	
+	/** Rects the way a screen has them: a few big containers, lots of small views inside them, now and then empty. */
+	private static RectTable rects(int count, long seed) {
+		RectTable rects = new RectTable(count);
+		Random random = new Random(seed);
+		for (int i = 0; i < count; i++) {
+			final int width = i % 50 == 0 ? 1080 : i % 13 == 0 ? 0 : 20 + random.nextInt(400);
+			final int height = i % 50 == 0 ? 1920 : i % 17 == 0 ? 0 : 20 + random.nextInt(200);
+			final int left = random.nextInt(1080 + 200) - 100, top = random.nextInt(1920 + 200) - 100;
+			rects.set(i, left, top, left + width, top + height);
+		}
+		return rects;
+	}
+	
+	// same semantics as android.graphics.Rect.intersects, written out rather than taken from RectTable
+	private static int[] overlapping(RectTable rects, int l, int t, int r, int b) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int i = 0; i < rects.size; i++)
+			if (rects.left[i] < r && l < rects.right[i] && rects.top[i] < b && t < rects.bottom[i])
+				found.add(i);
+		int[] a = new int[found.size()];
+		for (int i = 0; i < a.length; i++)
+			a[i] = found.get(i);
+		return a;
+	}
+	
+	// what the grid reports, sorted; an item reported twice shows up as a mismatch
+	private static int[] query(OverlapGrid grid, int left, int top, int right, int bottom) {
+		final int[][] found = { new int[16] };
+		final int[] count = new int[1];
+		grid.query(left, top, right, bottom, new OverlapGrid.Visitor() {
+			@Override
+			public void visit(int item) {
+				if (count[0] == found[0].length)
+					found[0] = Arrays.copyOf(found[0], count[0] * 2);
+				found[0][count[0]++] = item;
+			}
+		});
+		int[] sorted = Arrays.copyOf(found[0], count[0]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+	
+	private static void check(RectTable rects, OverlapGrid grid, int left, int top, int right, int bottom) {
+		assertArrayEquals(String.format("[%d,%d][%d,%d] in %d rects", left, top, right, bottom, rects.size),
+				overlapping(rects, left, top, right, bottom), query(grid, left, top, right, bottom));
+	}
+	
+	@Test
+	public void everyRectsOverlapsMatchPairwise() {
+		for (int count : new int[] { 0, 1, 300, 3000 }) {
+			RectTable rects = rects(count, count);
+			OverlapGrid grid = new OverlapGrid(rects);
+			for (int i = 0; i < count; i++)
+				check(rects, grid, rects.left[i], rects.top[i], rects.right[i], rects.bottom[i]);
+		}
+	}
+	
+	@Test
+	public void intersectsMatchesWhatTheGridReports() {
+		RectTable rects = rects(300, 300);
+		OverlapGrid grid = new OverlapGrid(rects);
+		for (int i = 0; i < rects.size; i++) {
+			final int[] found = query(grid, rects.left[i], rects.top[i], rects.right[i], rects.bottom[i]);
+			for (int j = 0; j < rects.size; j++)
+				assertEquals(String.format("rects %d and %d", i, j), Arrays.binarySearch(found, j) >= 0, RectTable.intersects(rects, i, rects, j));
+		}
+	}
+	
+	@Test
+	public void arbitraryRectsMatchPairwise() {
+		for (int count : new int[] { 0, 1, 300, 3000 }) {
+			RectTable rects = rects(count, count);
+			OverlapGrid grid = new OverlapGrid(rects);
+			Random random = new Random(-count);
+			for (int i = 0; i < 500; i++) {
+				// reaching past the screen, and now and then empty or a single point
+				final int left = random.nextInt(1400) - 200, top = random.nextInt(2400) - 200;
+				final int width = i % 10 == 0 ? 0 : random.nextInt(800), height = i % 7 == 0 ? 0 : random.nextInt(800);
+				check(rects, grid, left, top, left + width, top + height);
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class QueryPlanTest {
+	
+	private static NodeCombination.Source anchors(final int count, final long seed) {
+		return new NodeCombination.Source() {
+			@Override
+			NodeCombination resolve(HierarchyNodes nodes) {
+				Random random = new Random(seed);
+				int[] potentials = new int[Math.min(count, nodes.size)];
+				for (int i = 0; i < potentials.length; i++)
+					potentials[i] = random.nextInt(nodes.size);
+				return new NodeCombination(nodes, potentials, 1, Integer.MAX_VALUE);
+			}
+		};
+	}
+	
+	// every kind of stage there is, cheap and dear
+	private static List<NodePredicate> stages() {
+		return Arrays.asList(
+				NodePredicate.combination(anchors(100, 1), NodePairTest.overlaps(true), true),
+				NodePredicate.matchesRegex(Pattern.compile(".*1.*"), true),
+				NodePredicate.combination(anchors(8, 2), NodePairTest.POTENTIAL_LEFT_OF, false),
+				NodePredicate.literalText(LiteralText.CONTAINS, "e", false),
+				NodePredicate.isA(RandomHierarchy.TEXT_VIEW));
+	}
+	
+	@Test
+	public void planFindsWhatTheGivenOrderFinds() {
+		for (int count : new int[] { 0, 1, 300, 3000 }) {
+			final HierarchyNodes nodes = RandomHierarchy.build(count, count);
+			final List<NodePredicate> all = stages();
+			// each stage alone, then every run of them in the order given and reversed
+			for (int from = 0; from < all.size(); from++) {
+				for (int to = from + 1; to <= all.size(); to++) {
+					List<NodePredicate> chain = new ArrayList<NodePredicate>(all.subList(from, to));
+					for (int pass = 0; pass < 2; pass++) {
+						QueryPlan plan = QueryPlan.prepare(nodes, chain, null);
+						assertNotNull(plan);
+						final int[] expected = NodeQuery.evaluate(nodes, null, chain, Integer.MAX_VALUE, null);
+						assertArrayEquals(String.format("stages %d to %d of %d nodes: %s", from, to, count, plan.explain()),
+								expected, plan.evaluate(null, Integer.MAX_VALUE, null));
+						Collections.reverse(chain);
+					}
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void cheapStagesRunFirst() {
+		final HierarchyNodes nodes = RandomHierarchy.build(3000, 4);
+		final List<String> labels = Arrays.asList("overlaps", "regex", "left of", "text", "type");
+		QueryPlan plan = QueryPlan.prepare(nodes, stages(), labels);
+		final String[] lines = plan.explain().split("\n");
+		assertEquals(plan.explain(), labels.size() + 1, lines.length);
+		assertTrue(plan.explain(), lines[1].startsWith("1. type (given 5)"));
+		assertTrue(plan.explain(), lines[2].startsWith("2. text (given 4)"));
+		assertTrue(plan.explain(), lines[3].startsWith("3. regex (given 2)"));
+	}
+	
+	@Test
+	public void explainCountsEachStage() {
+		final HierarchyNodes nodes = RandomHierarchy.build(3000, 5);
+		final List<NodePredicate> chain = Arrays.asList(
+				NodePredicate.literalText(LiteralText.CONTAINS, "e", false),
+				NodePredicate.isA(RandomHierarchy.BUTTON));
+		QueryPlan plan = QueryPlan.prepare(nodes, chain, Arrays.asList("text", "type"));
+		final int[] found = plan.evaluate(null, Integer.MAX_VALUE, null);
+		
+		// the type check runs first, and is asked about every node; the text check only about the buttons
+		int buttons = 0;
+		for (int node = 0; node < nodes.size; node++)
+			if (nodes.classes[nodes.classOf[node]].isA(RandomHierarchy.BUTTON))
+				buttons++;
+		final String[] lines = plan.explain().split("\n");
+		assertTrue(plan.explain(), lines[1].endsWith(String.format("asked about %d, passed %d", nodes.size, buttons)));
+		assertTrue(plan.explain(), lines[2].endsWith(String.format("asked about %d, passed %d", buttons, found.length)));
+	}
+}
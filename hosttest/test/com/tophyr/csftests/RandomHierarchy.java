@@ -0,0 +1,50 @@
+package com.tophyr.csftests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Hierarchies the way a screen has them, but shuffled: a few windows, nesting of any depth, classes with and without
+ * supertypes, repeated and missing texts and ids, and now and then an invisible or empty view.
+ */
+final class RandomHierarchy {
+	
+	static final String VIEW = "android.view.View", TEXT_VIEW = "android.widget.TextView", BUTTON = "android.widget.Button";
+	
+	private static final String[] TEXTS = { "OK", "Cancel", "Item", "Sign in", "Password", "" };
+	
+	private RandomHierarchy() {
+	}
+	
+	static HierarchyNodes build(int count, long seed) {
+		final Random random = new Random(seed);
+		HierarchyNodes.Builder b = new HierarchyNodes.Builder();
+		final int[] classes = {
+			b.addClass(VIEW, new String[0]),
+			b.addClass("android.widget.FrameLayout", new String[] { "android.view.ViewGroup", VIEW }),
+			b.addClass(TEXT_VIEW, new String[] { VIEW }),
+			b.addClass(BUTTON, new String[] { TEXT_VIEW, VIEW }),
+		};
+		
+		// the last node's ancestors, nearest last; a new node goes under one of them, so numbering stays pre-order
+		List<Integer> path = new ArrayList<Integer>();
+		for (int i = 0; i < count; i++) {
+			if (i > 0 && random.nextInt(count / 3 + 2) == 0)
+				path.clear();
+			else if (!path.isEmpty())
+				path.subList(path.size() - random.nextInt(Math.min(path.size(), 3) + 1), path.size()).clear();
+			final int parent = path.isEmpty() ? -1 : path.get(path.size() - 1);
+			
+			final int cls = classes[random.nextInt(classes.length)];
+			final int id = random.nextInt(3) == 0 ? HierarchyNodes.NO_ID : 0x7f080000 + random.nextInt(count / 4 + 1);
+			final String text = random.nextInt(3) == 0 ? null : TEXTS[random.nextInt(TEXTS.length)] + (random.nextBoolean() ? "" : " " + i);
+			final String hint = random.nextInt(4) == 0 ? TEXTS[random.nextInt(TEXTS.length)] : null;
+			final int visibility = random.nextInt(8) == 0 ? 4 : random.nextInt(8) == 0 ? 8 : HierarchyNodes.VISIBLE;
+			final int left = random.nextInt(1080), top = random.nextInt(1920);
+			final int width = i % 11 == 0 ? 0 : random.nextInt(400), height = random.nextInt(200);
+			path.add(b.add(parent, cls, id, text, hint, visibility, left, top, left + width, top + height));
+		}
+		return b.build();
+	}
+}
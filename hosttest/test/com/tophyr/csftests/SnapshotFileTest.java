@@ -0,0 +1,110 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SnapshotFileTest {
+	
+	private static SnapshotFile roundTrip(HierarchyNodes nodes, String label, int activityWindow) throws IOException {
+		File file = File.createTempFile("snapshot", ".csfh");
+		try {
+			SnapshotFile.write(nodes, label, activityWindow, file);
+			return SnapshotFile.read(file);
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private static byte[] bytes(HierarchyNodes nodes) throws IOException {
+		File file = File.createTempFile("snapshot", ".csfh");
+		try {
+			SnapshotFile.write(nodes, "label", -1, file);
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				byte[] bytes = new byte[(int) in.length()];
+				in.readFully(bytes);
+				return bytes;
+			} finally {
+				in.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private static void assertSameNodes(HierarchyNodes expected, HierarchyNodes actual) {
+		assertEquals(expected.size, actual.size);
+		assertArrayEquals(expected.classOf, actual.classOf);
+		assertArrayEquals(expected.id, actual.id);
+		assertArrayEquals(expected.text, actual.text);
+		assertArrayEquals(expected.hint, actual.hint);
+		assertArrayEquals(expected.visibility, actual.visibility);
+		assertArrayEquals(expected.parent, actual.parent);
+		assertArrayEquals(expected.rects.left, actual.rects.left);
+		assertArrayEquals(expected.rects.top, actual.rects.top);
+		assertArrayEquals(expected.rects.right, actual.rects.right);
+		assertArrayEquals(expected.rects.bottom, actual.rects.bottom);
+		assertEquals(expected.classes.length, actual.classes.length);
+		for (int c = 0; c < expected.classes.length; c++) {
+			assertEquals(expected.classes[c].name, actual.classes[c].name);
+			assertArrayEquals(expected.classes[c].supertypes, actual.classes[c].supertypes);
+		}
+	}
+	
+	@Test
+	public void hierarchiesSurviveTheRoundTrip() throws IOException {
+		for (int count : new int[] { 0, 1, 300, 3000 }) {
+			final HierarchyNodes nodes = RandomHierarchy.build(count, count);
+			final int window = count == 0 ? -1 : count / 2;
+			SnapshotFile read = roundTrip(nodes, "test in activity " + count, window);
+			assertSameNodes(nodes, read.nodes);
+			assertEquals("test in activity " + count, read.label);
+			assertEquals(window, read.activityWindow);
+		}
+	}
+	
+	@Test
+	public void oddStringsSurviveTheRoundTrip() throws IOException {
+		// odd total lengths need the padding, and strings with nulls and surrogate pairs mustn't be split on them
+		HierarchyNodes.Builder b = new HierarchyNodes.Builder();
+		final int view = b.addClass("android.view.View", new String[0]);
+		b.add(-1, view, HierarchyNodes.NO_ID, "a", null, HierarchyNodes.VISIBLE, 0, 0, 1, 1);
+		b.add(0, view, HierarchyNodes.NO_ID, "a\0b\ud83d\ude00", "", HierarchyNodes.VISIBLE, 0, 0, 1, 1);
+		HierarchyNodes nodes = b.build();
+		SnapshotFile read = roundTrip(nodes, null, -1);
+		assertSameNodes(nodes, read.nodes);
+		assertNull(read.label);
+	}
+	
+	@Test
+	public void damagedFilesAreRejected() throws IOException {
+		final byte[] bytes = bytes(RandomHierarchy.build(300, 1));
+		for (int length : new int[] { 0, 3, 27, 28, 100, bytes.length / 2, bytes.length - 4 }) {
+			try {
+				SnapshotFile.read(ByteBuffer.wrap(Arrays.copyOf(bytes, length)));
+				fail("read a snapshot cut to " + length + " bytes");
+			} catch (IOException expected) {
+			}
+		}
+		
+		for (int header = 0; header < 7; header++) {
+			final byte[] damaged = bytes.clone();
+			damaged[header * 4] = (byte) 0x7f;
+			try {
+				SnapshotFile.read(ByteBuffer.wrap(damaged));
+				fail("read a snapshot with header int " + header + " damaged");
+			} catch (IOException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TextIndexTest {
+	
+	private static final String[] WORDS = { "OK", "Cancel", "Item", "Label", "Sign in", "Password", "e", "" };
+	
+	// texts the way a screen has them: repeated labels, numbered rows, empty and missing ones, and a few odd characters
+	private static String[] texts(int count, long seed) {
+		Random random = new Random(seed);
+		String[] texts = new String[count];
+		for (int i = 0; i < count; i++) {
+			switch (random.nextInt(6)) {
+				case 0:
+					texts[i] = null;
+					break;
+				case 1:
+					texts[i] = WORDS[random.nextInt(WORDS.length)];
+					break;
+				case 2:
+					texts[i] = "a\0b" + (i % 3 == 0 ? "\ud83d\ude00" : "");
+					break;
+				default:
+					texts[i] = WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(count);
+			}
+		}
+		return texts;
+	}
+	
+	// literals drawn from the texts themselves (whole, prefixes, middles), and a few that match nothing
+	private static List<String> literals(String[] texts) {
+		List<String> literals = new ArrayList<String>();
+		literals.add("");
+		literals.add("no such text");
+		literals.add("\0");
+		literals.add("Item 1");
+		Random random = new Random(texts.length);
+		for (int i = 0; i < 40 && texts.length > 0; i++) {
+			final String text = texts[random.nextInt(texts.length)];
+			if (text == null || text.length() == 0)
+				continue;
+			final int start = random.nextInt(text.length()), end = start + 1 + random.nextInt(text.length() - start);
+			literals.add(text);
+			literals.add(text.substring(0, end));
+			literals.add(text.substring(start, end));
+			literals.add(text.substring(0, end) + "~");
+		}
+		return literals;
+	}
+	
+	// the same question answered with String's own methods
+	private static boolean matches(LiteralText mode, String text, String literal) {
+		switch (mode) {
+			case EXACT:
+				return text.equals(literal);
+			case PREFIX:
+				return text.startsWith(literal);
+			default:
+				return text.contains(literal);
+		}
+	}
+	
+	private static int[] find(String[] texts, LiteralText mode, String literal) {
+		List<Integer> found = new ArrayList<Integer>();
+		for (int i = 0; i < texts.length; i++)
+			if (texts[i] != null && matches(mode, texts[i], literal))
+				found.add(i);
+		int[] a = new int[found.size()];
+		for (int i = 0; i < a.length; i++)
+			a[i] = found.get(i);
+		return a;
+	}
+	
+	@Test
+	public void indexFindsWhatEveryTextMatches() {
+		for (int count : new int[] { 0, 1, 300, 3000 }) {
+			final String[] texts = texts(count, count);
+			TextIndex index = new TextIndex(texts);
+			for (String literal : literals(texts))
+				for (LiteralText mode : LiteralText.values())
+					assertArrayEquals(String.format("%s '%s' in %d texts", mode, literal, count), find(texts, mode, literal), index.find(mode, literal));
+		}
+	}
+	
+	@Test
+	public void literalTextAgreesWithString() {
+		final String[] texts = texts(300, 300);
+		for (String literal : literals(texts))
+			for (LiteralText mode : LiteralText.values())
+				for (String text : texts)
+					if (text != null)
+						assertEquals(String.format("%s '%s' against '%s'", mode, literal, text), matches(mode, text, literal), mode.matches(text, literal));
+	}
+	
+	@Test
+	public void literalTextReadsAnyCharSequence() {
+		for (LiteralText mode : LiteralText.values())
+			for (String literal : new String[] { "", "Sign", "in", "Sign in", "Sign in now" })
+				assertEquals(mode + " " + literal, matches(mode, "Sign in", literal), mode.matches(new StringBuilder("Sign in"), literal));
+	}
+	
+	// nodes as they were, but with the given texts
+	private static HierarchyNodes withTexts(HierarchyNodes nodes, String[] texts) {
+		HierarchyNodes.Builder b = new HierarchyNodes.Builder();
+		for (HierarchyNodes.NodeClass cls : nodes.classes)
+			b.addClass(cls.name, cls.supertypes);
+		for (int i = 0; i < nodes.size; i++)
+			b.add(nodes.parent[i], nodes.classOf[i], nodes.id[i], texts[i], nodes.hint[i], nodes.visibility[i],
+					nodes.rects.left[i], nodes.rects.top[i], nodes.rects.right[i], nodes.rects.bottom[i]);
+		return b.build();
+	}
+	
+	@Test
+	public void inheritedIndexesSeeEditedTexts() {
+		HierarchyNodes nodes = RandomHierarchy.build(3000, 3);
+		final Random random = new Random(3);
+		nodes.findText(LiteralText.EXACT, "", true);
+		// a few edits per snapshot, until the stale nodes outgrow the inherited index and it's rebuilt
+		for (int generation = 0; generation < 40; generation++) {
+			final String[] texts = nodes.text.clone();
+			int[] changed = new int[1 + random.nextInt(8)];
+			for (int i = 0; i < changed.length; i++) {
+				changed[i] = random.nextInt(nodes.size);
+				texts[changed[i]] = i % 3 == 0 ? null : WORDS[random.nextInt(WORDS.length)] + " " + generation;
+			}
+			Arrays.sort(changed);
+			
+			HierarchyNodes next = withTexts(nodes, texts);
+			next.inheritIndexes(nodes, true, changed, true);
+			for (String literal : literals(texts)) {
+				for (LiteralText mode : LiteralText.values()) {
+					final int[] expected = find(texts, mode, literal);
+					assertArrayEquals(String.format("%s '%s' after %d edits", mode, literal, generation), expected, next.findText(mode, literal, false));
+				}
+			}
+			nodes = next;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package com.tophyr.csftests;
+
+import java.util.List;
+
+import android.app.Activity;
+
+/**
+ * Follows activities through their lifecycle, from {@link #start()} until {@link #stop()}; one tracker serves every
+ * test in the process, with {@link #reset()} in between.
+ */
+interface ActivityTracker {
+	
+	void start();
+	void stop();
+	
+	/** Forgets what the last test saw, but keeps following the activities that are still open. */
+	void reset();
+	
+	/** @return the activity that resumed last, even once it has paused, or null if none has resumed yet */
+	Activity getLastResumedActivity();
+	
+	/** @return whether the last resumed activity is still resumed; false between one pausing and the next resuming */
+	boolean isActivityResumed();
+	
+	boolean waitForResumedActivity(Class<?> cls, long timeout);
+	boolean waitForFinishedActivity(Activity a, long timeout);
+	
+	/** Starts following an activity that was already running before {@link #start()}, such as one kept from an earlier test. */
+	void adopt(Activity a);
+	
+	/** @return the activities followed so far that aren't finishing, oldest first */
+	List<Activity> getOpenActivities();
+}
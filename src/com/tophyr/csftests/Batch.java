@@ -0,0 +1,121 @@
+package com.tophyr.csftests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.app.Activity;
+import android.view.View;
+
+import com.tophyr.csftests.CSFActivityTestCase.FindViewResult;
+
+import junit.framework.Assert;
+
+/**
+ * Queries and expectations checked together against one snapshot, reporting every failure at once. Nothing waits, so
+ * check it once the screen has settled; checking it again searches again.
+ */
+public class Batch {
+	
+	// one thing a Batch checks; @return a failure message, or null
+	abstract static class Expectation {
+		abstract String check();
+	}
+	
+	private final CSFActivityTestCase<?> m_Test;
+	private final HelperStats m_Stats;
+	private final List<Expectation> m_Expectations = new ArrayList<Expectation>();
+	
+	Batch(CSFActivityTestCase<?> test, HelperStats stats) {
+		m_Test = test;
+		m_Stats = stats;
+	}
+	
+	/** A query that fails the batch if nothing matches it. */
+	public <T extends View> BatchQuery<T> find(FindViewResult<T> pattern) {
+		return add(pattern, true);
+	}
+	
+	/** A query that may come back empty. */
+	public <T extends View> BatchQuery<T> findOrEmpty(FindViewResult<T> pattern) {
+		return add(pattern, false);
+	}
+	
+	private <T extends View> BatchQuery<T> add(FindViewResult<T> pattern, boolean required) {
+		Assert.assertNotNull("Tried to find views with null pattern.", pattern);
+		BatchQuery<T> query = new BatchQuery<T>(pattern, required);
+		m_Expectations.add(query);
+		return query;
+	}
+	
+	public Batch expectText(final CharSequence text) {
+		Assert.assertNotNull("Tried to expect null text.", text);
+		m_Expectations.add(new Expectation() {
+			@Override
+			String check() {
+				return m_Test.findViewsOrEmpty(m_Test.containsText(text)).isEmpty() ? String.format("%s not shown", text) : null;
+			}
+		});
+		return this;
+	}
+	
+	public Batch expectNoText(final CharSequence text) {
+		Assert.assertNotNull("Tried to expect null text.", text);
+		m_Expectations.add(new Expectation() {
+			@Override
+			String check() {
+				return m_Test.findViewsOrEmpty(m_Test.containsText(text)).isEmpty() ? null : String.format("%s still shown", text);
+			}
+		});
+		return this;
+	}
+	
+	public Batch expectActivity(final Class<?> activityClass) {
+		Assert.assertNotNull("Tried to expect null activity class.", activityClass);
+		m_Expectations.add(new Expectation() {
+			@Override
+			String check() {
+				final Activity current = m_Test.getCurrentActivity();
+				if (current != null && current.getClass() == activityClass)
+					return null;
+				return String.format("%s not shown. Current activity: %s", activityClass.getSimpleName(), 
+						current == null ? null : current.getClass().getSimpleName());
+			}
+		});
+		return this;
+	}
+	
+	public void check() {
+		check(null);
+	}
+	
+	public void check(String msg) {
+		final List<String> failures = m_Stats.time(HelperStats.Family.ASSERT, new HelperStats.Timed<List<String>>() {
+			@Override
+			List<String> run() {
+				List<String> failures = new ArrayList<String>();
+				m_Test.pinSnapshot(m_Test.getSnapshot());
+				try {
+					for (Expectation expectation : m_Expectations) {
+						String failure = expectation.check();
+						if (failure != null)
+							failures.add(failure);
+					}
+				} finally {
+					m_Test.pinSnapshot(null);
+				}
+				return failures;
+			}
+		});
+		
+		if (failures.isEmpty())
+			return;
+		
+		StringBuilder report = new StringBuilder();
+		if (msg != null)
+			report.append(msg).append("\n");
+		report.append(String.format("%d of %d expectations failed:", failures.size(), m_Expectations.size()));
+		for (String failure : failures)
+			report.append("\n\t").append(failure);
+		Assert.fail(report.toString());
+	}
+}
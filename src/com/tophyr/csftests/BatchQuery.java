@@ -0,0 +1,38 @@
+package com.tophyr.csftests;
+
+import java.util.List;
+
+import android.view.View;
+
+import com.tophyr.csftests.CSFActivityTestCase.FindViewResult;
+
+/** One query of a {@link Batch}; its views are the ones the batch's last check found. */
+public class BatchQuery<T extends View> extends Batch.Expectation {
+	private final FindViewResult<T> m_Pattern;
+	private final boolean m_Required;
+	private List<T> m_Views;
+	
+	BatchQuery(FindViewResult<T> pattern, boolean required) {
+		m_Pattern = pattern;
+		m_Required = required;
+	}
+	
+	@Override
+	String check() {
+		m_Views = m_Pattern.refresh();
+		if (m_Required && m_Views.isEmpty())
+			return String.format("Failed to find any %s", m_Pattern.getDescription());
+		return null;
+	}
+	
+	public T getView() {
+		final List<T> views = getViews();
+		return views.isEmpty() ? null : views.get(0);
+	}
+	
+	public List<T> getViews() {
+		if (m_Views == null)
+			throw new IllegalStateException("Batch hasn't been checked yet.");
+		return m_Views;
+	}
+}
@@ -0,0 +1,220 @@
+package com.tophyr.csftests;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.app.Instrumentation.ActivityMonitor;
+import android.content.IntentFilter;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+
+/**
+ * Tracks which activity is resumed and which are finishing.
+ * 
+ * Lifecycle transitions all happen in messages on the main thread, so the monitor checks the activities it has seen
+ * whenever the main thread's queue goes idle, and completes any waiters right there. This is the fallback for
+ * platforms without activity lifecycle callbacks; see {@link LifecycleActivityTracker}.
+ * 
+ * A monitor only keeps the last activity created, so on its own this only learns of the activities still current
+ * when the queue goes idle; one created and replaced (or created and finished) in between is never followed. Run
+ * under {@link CSFTestRunner} and it's told of every activity as it's created instead, on the main thread.
+ */
+final class CSActivityMonitor extends ActivityMonitor implements ActivityTracker, MessageQueue.IdleHandler,
+		CSFTestRunner.CreationListener {
+	
+	private static final Field s_mResumed = FrameworkInternals.ACTIVITY_RESUMED;
+	
+	private final Instrumentation m_Instrumentation;
+	private volatile WeakReference<Activity> m_LastResumedActivity;
+	
+	// only touched on the main thread
+	private final ArrayList<WeakReference<Activity>> m_KnownActivities;
+	
+	private final Waiters<Class<?>> m_ResumeWaiters;
+	private final Waiters<Activity> m_FinishWaiters;
+	
+	public CSActivityMonitor(Instrumentation instrumentation) {
+		super((IntentFilter)null, null, false);
+		
+		if (s_mResumed == null)
+			throw new RuntimeException("Unable to access mResumed field of Activity.");
+		
+		m_Instrumentation = instrumentation;
+		m_LastResumedActivity = new WeakReference<Activity>(null);
+		m_KnownActivities = new ArrayList<WeakReference<Activity>>();
+		
+		m_ResumeWaiters = new Waiters<Class<?>>();
+		m_FinishWaiters = new Waiters<Activity>();
+	}
+	
+	@Override
+	public void start() {
+		m_Instrumentation.addMonitor(this);
+		if (m_Instrumentation instanceof CSFTestRunner)
+			((CSFTestRunner)m_Instrumentation).setCreationListener(this);
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				Looper.myQueue().addIdleHandler(CSActivityMonitor.this);
+				queueIdle(); // pick up whatever is already running
+			}
+		});
+	}
+	
+	@Override
+	public void stop() {
+		if (m_Instrumentation instanceof CSFTestRunner)
+			((CSFTestRunner)m_Instrumentation).setCreationListener(null);
+		m_Instrumentation.removeMonitor(this);
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				Looper.myQueue().removeIdleHandler(CSActivityMonitor.this);
+				m_KnownActivities.clear();
+			}
+		});
+		
+		m_ResumeWaiters.releaseAll();
+		m_FinishWaiters.releaseAll();
+	}
+	
+	@Override
+	public void reset() {
+		m_ResumeWaiters.releaseAll();
+		m_FinishWaiters.releaseAll();
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				queueIdle();
+				// nothing resumes in its place when the last test finishes everything
+				final Activity last = m_LastResumedActivity.get();
+				if (last != null && last.isFinishing())
+					m_LastResumedActivity = new WeakReference<Activity>(null);
+			}
+		});
+	}
+	
+	@Override
+	public void activityCreated(Activity a) {
+		collect(a);
+	}
+	
+	@Override
+	public boolean queueIdle() {
+		collect(getLastActivity());
+		
+		Iterator<WeakReference<Activity>> iter = m_KnownActivities.iterator();
+		while (iter.hasNext()) {
+			final Activity a = iter.next().get();
+			if (a == null) {
+				iter.remove();
+				continue;
+			}
+			
+			try {
+				if (s_mResumed.getBoolean(a) && m_LastResumedActivity.get() != a) {
+					m_LastResumedActivity = new WeakReference<Activity>(a);
+					m_ResumeWaiters.complete(a.getClass());
+				} else if (a.isFinishing()) {
+					iter.remove();
+					m_FinishWaiters.complete(a);
+				}
+			} catch (IllegalArgumentException e) {
+				Log.e("CSFActivityTestCase", "Supposed-to-be-impossible error:", e);
+			} catch (IllegalAccessException e) {
+				Log.e("CSFActivityTestCase", "Supposed-to-be-impossible error:", e);
+			}
+		}
+		
+		return true; // stay registered
+	}
+	
+	// on the main thread
+	private void collect(Activity a) {
+		if (a == null)
+			return;
+		for (WeakReference<Activity> known : m_KnownActivities)
+			if (known.get() == a)
+				return;
+		m_KnownActivities.add(new WeakReference<Activity>(a));
+	}
+	
+	@Override
+	public Activity getLastResumedActivity() {
+		return m_LastResumedActivity.get();
+	}
+	
+	@Override
+	public boolean isActivityResumed() {
+		final Activity a = m_LastResumedActivity.get();
+		try {
+			return a != null && s_mResumed.getBoolean(a);
+		} catch (IllegalAccessException e) {
+			return a != null && !a.isFinishing();
+		}
+	}
+	
+	private boolean isResumed(Class<?> cls) {
+		final Activity a = getLastResumedActivity();
+		return a != null && a.getClass() == cls;
+	}
+	
+	@Override
+	public boolean waitForResumedActivity(final Class<?> cls, long timeout) {
+		return m_ResumeWaiters.await(cls, timeout, new Waiters.Condition() {
+			@Override
+			boolean holds() {
+				return isResumed(cls);
+			}
+		});
+	}
+	
+	@Override
+	public boolean waitForFinishedActivity(final Activity a, long timeout) {
+		if (a == null)
+			throw new IllegalArgumentException("Activity may not be null.");
+		
+		return m_FinishWaiters.await(a, timeout, new Waiters.Condition() {
+			@Override
+			boolean holds() {
+				return a.isFinishing();
+			}
+		});
+	}
+	
+	@Override
+	public void adopt(final Activity a) {
+		if (a == null)
+			throw new IllegalArgumentException("Activity may not be null.");
+		
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				collect(a);
+				queueIdle();
+			}
+		});
+	}
+	
+	@Override
+	public List<Activity> getOpenActivities() {
+		final ArrayList<Activity> open = new ArrayList<Activity>();
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				for (WeakReference<Activity> known : m_KnownActivities) {
+					final Activity a = known.get();
+					if (a != null && !a.isFinishing())
+						open.add(a);
+				}
+			}
+		});
+		return open;
+	}
+}
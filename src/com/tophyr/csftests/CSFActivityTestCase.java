@@ -1,11 +1,14 @@
 package com.tophyr.csftests;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -13,18 +16,18 @@ import java.util.regex.Pattern;
 
 import android.app.Activity;
 import android.app.Instrumentation;
-import android.app.Instrumentation.ActivityMonitor;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.graphics.Rect;
 import android.os.SystemClock;
 import android.test.ActivityInstrumentationTestCase2;
 import android.util.Log;
 import android.view.KeyEvent;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
 import android.view.WindowManager;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
@@ -46,181 +49,84 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		public static final double NETWORK = 30.0;
 	}
 	
-	private static class CSActivityMonitor extends ActivityMonitor {
-		
-		private static final Field s_mResumed;
-		
-		static {
-			Field f;
-			try {
-				f = Activity.class.getDeclaredField("mResumed");
-			} catch (SecurityException e) {
-				f = null;
-			} catch (NoSuchFieldException e) {
-				f = null;
-			}
-			s_mResumed = f;
-			s_mResumed.setAccessible(true);
-		}
-		
-		private WeakReference<Activity> m_LastResumedActivity;
-		private final Thread m_Thread;
-		private volatile boolean m_Running;
-		
-		private final HashMap<Class<?>, Object> m_ResumeWaiters;
-		private final HashMap<Activity, Object> m_FinishWaiters;
-		
-		public CSActivityMonitor() {
-			super((IntentFilter)null, null, false);
-			
-			if (s_mResumed == null)
-				throw new RuntimeException("Unable to access mResumed field of Activity.");
-			
-			m_LastResumedActivity = new WeakReference<Activity>(null);
-			
-			m_ResumeWaiters = new HashMap<Class<?>, Object>();
-			m_FinishWaiters = new HashMap<Activity, Object>();
-			
-			m_Running = true;
-			
-			m_Thread = new Thread(new Runnable() {
-				@Override
-				public void run() {
-					Activity a;
-					
-					synchronized (CSActivityMonitor.this) {
-						while (m_Running) {
-							try {
-									CSActivityMonitor.this.wait();
-									a = getLastActivity();
-							} catch (InterruptedException e) {
-								continue;
-							}
-							
-							if (a == null)
-								continue; // wtfbubbles
-							
-							try {
-								if (s_mResumed.getBoolean(a) && m_LastResumedActivity.get() != a) {
-									m_LastResumedActivity = new WeakReference<Activity>(a);
-									
-									Object waitLock = null;
-									final Class<?> cls = a.getClass();
-									synchronized (m_ResumeWaiters) {
-										if (m_ResumeWaiters.containsKey(cls))
-											waitLock = m_ResumeWaiters.get(cls);
-									}
-									if (waitLock != null) {
-										synchronized (waitLock) {
-											waitLock.notifyAll();
-										}
-									}
-								} else if (a.isFinishing()) {
-									Object waitLock = null;
-									synchronized (m_FinishWaiters) {
-										if (m_FinishWaiters.containsKey(a))
-											waitLock = m_FinishWaiters.get(a);
-									}
-									if (waitLock != null) {
-										synchronized (waitLock) {
-											waitLock.notifyAll();
-										}
-									}
-								}
-							} catch (IllegalArgumentException e) {
-								Log.e("CSFActivityTestCase", "Supposed-to-be-impossible error:", e);
-							} catch (IllegalAccessException e) {
-								Log.e("CSFActivityTestCase", "Supposed-to-be-impossible error:", e);
-							}
-						}
-					}
-				}
-			});
-			m_Thread.start();
-		}
-		
-		public Activity getLastResumedActivity() {
-			return m_LastResumedActivity.get();
-		}
-		
-		public boolean waitForResumedActivity(Class<?> cls, long timeout) {
-			if (getLastResumedActivity() != null && getLastResumedActivity().getClass() == cls)
-				return true;
-			
-			final Object waitLock;
-			synchronized (m_ResumeWaiters) {
-				if (m_ResumeWaiters.containsKey(cls))
-					waitLock = m_ResumeWaiters.get(cls);
-				else {
-					waitLock = new Object();
-					m_ResumeWaiters.put(cls, waitLock);
-				}	
-			}
-			
-			synchronized (waitLock) {
-				final long millisGoal = SystemClock.uptimeMillis() + timeout;
-				while (timeout > 0) {
-					try {
-						waitLock.wait(timeout);
-						return getLastResumedActivity().getClass() == cls;
-					} catch (InterruptedException e) {
-						timeout = millisGoal - SystemClock.uptimeMillis();
-					}
-				}
-			}
-			
-			return false;
-		}
-		
-		public boolean waitForFinishedActivity(Activity a, long timeout) {
-			if (a == null)
-				throw new IllegalArgumentException("Activity may not be null.");
-			if (a.isFinishing())
-				return true;
-			
-			final Object waitLock;
-			synchronized (m_FinishWaiters) {
-				if (m_FinishWaiters.containsKey(a))
-					waitLock = m_FinishWaiters.get(a);
-				else {
-					waitLock = new Object();
-					m_FinishWaiters.put(a, waitLock);
-				}	
-			}
-			
-			synchronized (waitLock) {
-				final long millisGoal = SystemClock.uptimeMillis() + timeout;
-				while (timeout > 0) {
-					try {
-						waitLock.wait(timeout);
-						return a.isFinishing();
-					} catch (InterruptedException e) {
-						timeout = millisGoal - SystemClock.uptimeMillis();
-					}
-				}
-			}
-			
-			return false;
-		}
-
-		@Override
-		public void finalize() throws Throwable {
-			m_Running = false;
-			m_Thread.interrupt();
-			super.finalize();
-		}
+	public static enum WaitMode {
+		/** Re-check on a fixed interval. */
+		POLL,
+		/** Re-check whenever the top windows lay out or draw. */
+		UI_EVENTS
 	}
-
+	
+	public static enum AbsenceMode {
+		/**
+		 * Pass as soon as the text has stayed away for a few UI changes in a row, or while the UI sat still for a moment;
+		 * fail if it's still shown when the timeout runs out.
+		 */
+		STABLE,
+		/** Watch for the whole timeout, and fail if the text shows up at any point. */
+		FULL_TIMEOUT
+	}
+	
+	public static enum TextEntryMode {
+		/** As Solo does it: typeText sends a key event for every character, syncing after each; enterText sets the text. */
+		PER_KEY,
+		/**
+		 * Focus the view and commit the whole string at the end of its text through its input connection, in one
+		 * main-thread operation, as an input method would; TextWatchers see a single change. Views that are disabled
+		 * or take no input are still handled as PER_KEY.
+		 */
+		BULK
+	}
+	
+	// A new window (dialog, popup) doesn't necessarily lay out the windows we're listening to, so don't trust events alone for too long.
+	private static final long MAX_UI_EVENT_WAIT = 500;
+	
+	// how long getView waits for an id that isn't on screen yet; what Solo.getView waited
+	private static final double ID_TIMEOUT = Timeouts.LONG;
+	
+	private Harness m_Harness;
 	private Solo m_Solo;
-	private CSActivityMonitor m_ActivityMonitor;
+	private ActivityTracker m_ActivityTracker;
 	private Instrumentation m_Instrumentation;
 	
+	// the one signal the snapshot cache and every wait listen with, so the windows' listeners are only added once
+	private UiChangeSignal m_LayoutSignal;
+	private ViewSnapshot m_Snapshot;
+	private int m_SnapshotSignalGeneration;
+	private int m_SnapshotGeneration;
+	private boolean m_SnapshotPinned;
+	
+	private boolean m_TextIndexEnabled;
+	private File m_FailureSnapshotDir;
+	
 	private boolean m_DontFinishActivities;
 	
+	// the starting activity kept alive between the tests of one class; see setActivityReuse
+	private static Class<?> s_SessionTestClass;
+	private static WeakReference<Activity> s_SessionActivity;
+	private boolean m_ActivityReuse;
+	private boolean m_ActivityDirty;
+	private boolean m_SessionChecked;
+	private WaitMode m_TextWaitMode;
+	private AbsenceMode m_TextAbsenceMode;
+	private TextEntryMode m_TextEntryMode;
+	private int m_StableAbsenceChanges;
+	private long m_StableAbsenceQuietMillis;
+	
+	// every test's stats are added to the run's as it tears down
+	private static final String STATS_TAG = "CSFStats";
+	private static final HelperStats s_RunStats = new HelperStats();
+	private HelperStats m_Stats;
+	private long m_TestStart;
+	
 	public CSFActivityTestCase(Class<StartingActivity> startClass) {
 		super(startClass);
 		
 		m_DontFinishActivities = false;
+		m_TextWaitMode = WaitMode.UI_EVENTS;
+		m_TextAbsenceMode = AbsenceMode.FULL_TIMEOUT;
+		m_TextEntryMode = TextEntryMode.PER_KEY;
+		m_StableAbsenceChanges = 3;
+		m_StableAbsenceQuietMillis = 250;
 	}
 	
 	@Override
@@ -228,56 +134,296 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		super.setUp();
 		
 		m_Instrumentation = getInstrumentation();
-		m_ActivityMonitor = new CSActivityMonitor();
-		m_Instrumentation.addMonitor(m_ActivityMonitor);
-		m_Solo = new Solo(m_Instrumentation, null);
+		m_Stats = new HelperStats();
+		m_TestStart = HelperStats.start();
+		m_Harness = Harness.acquire(m_Instrumentation);
+		m_ActivityTracker = m_Harness.tracker;
+		m_Solo = m_Harness.solo;
+		m_LayoutSignal = new UiChangeSignal(m_Instrumentation, true);
 	}
 	
 	@Override
 	protected void tearDown() throws Exception {
-		if (!m_DontFinishActivities)
-			m_Solo.finishOpenedActivities();
+		final Activity kept = m_ActivityReuse && !m_ActivityDirty ? sessionActivity() : null;
+		if (kept != null) {
+			if (!m_DontFinishActivities)
+				finishActivitiesExcept(kept);
+			setActivity(null); // or ActivityInstrumentationTestCase2 finishes it
+		} else {
+			endActivitySession();
+			if (!m_DontFinishActivities)
+				finishActivitiesExcept(null);
+		}
 		
-		m_Instrumentation.removeMonitor(m_ActivityMonitor);
-		m_ActivityMonitor = null;
+		// the harness outlives the test; the next one resets it
+		m_Harness = null;
+		m_ActivityTracker = null;
+		m_Solo = null;
+		
+		m_LayoutSignal.detach();
+		m_SnapshotPinned = false;
+		m_Snapshot = null;
+		
+		reportStats();
 		
 		super.tearDown();
 	}
 	
+	@Override
+	protected void runTest() throws Throwable {
+		try {
+			super.runTest();
+		} catch (Throwable t) {
+			saveFailureSnapshot();
+			throw t;
+		}
+	}
+	
+	/**
+	 * Logs this test's helper timings and counters, then the whole run's so far, as one line of JSON each (see
+	 * {@link HelperStats#toJson}) under the CSFStats tag. The last run line logged is the aggregate for the run, and
+	 * the per-test lines are what the shard planner (tools/) records durations from.
+	 */
+	private void reportStats() {
+		m_Stats.testFinished(System.nanoTime() - m_TestStart);
+		m_Stats.addTo(s_RunStats);
+		Log.i(STATS_TAG, m_Stats.toJson(getClass().getName() + "#" + getName()));
+		Log.i(STATS_TAG, s_RunStats.toJson("run"));
+	}
+	
+	/**
+	 * Launches the starting activity the first time a test asks for it, or, with {@link #setActivityReuse}, hands back
+	 * the one kept from the previous test of this class once {@link #resetActivity} has put it back in shape.
+	 */
+	@Override
+	public StartingActivity getActivity() {
+		if (!m_SessionChecked) {
+			m_SessionChecked = true;
+			resumeActivitySession();
+		}
+		
+		final StartingActivity a = super.getActivity();
+		if (m_ActivityReuse && a != null) {
+			s_SessionTestClass = getClass();
+			s_SessionActivity = new WeakReference<Activity>(a);
+		}
+		return a;
+	}
+	
+	private void resumeActivitySession() {
+		@SuppressWarnings("unchecked")
+		final StartingActivity kept = (StartingActivity)sessionActivity();
+		if (kept == null) {
+			endActivitySession();
+			return;
+		}
+		
+		m_ActivityTracker.adopt(kept);
+		m_Instrumentation.waitForIdleSync();
+		
+		boolean reset;
+		try {
+			reset = m_ActivityReuse && resetActivity(kept);
+		} catch (RuntimeException e) {
+			Log.w("CSFActivityTestCase", "Resetting " + kept + " failed; relaunching it.", e);
+			reset = false;
+		}
+		
+		if (reset) {
+			m_Instrumentation.waitForIdleSync();
+			m_Harness.bindSolo(kept);
+			m_Solo = m_Harness.solo;
+			setActivity(kept);
+		} else {
+			endActivitySession();
+		}
+	}
+	
+	/** @return the activity kept from an earlier test of this class, if it's still usable */
+	private Activity sessionActivity() {
+		if (s_SessionActivity == null || s_SessionTestClass != getClass())
+			return null;
+		final Activity a = s_SessionActivity.get();
+		return a == null || a.isFinishing() ? null : a;
+	}
+	
+	/** Finishes the kept activity, if there is one; whatever comes next launches a fresh one. */
+	private void endActivitySession() {
+		final Activity a = s_SessionActivity == null ? null : s_SessionActivity.get();
+		s_SessionTestClass = null;
+		s_SessionActivity = null;
+		if (a == null || a.isFinishing())
+			return;
+		
+		m_ActivityTracker.adopt(a);
+		a.finish();
+		m_ActivityTracker.waitForFinishedActivity(a, (long)(Timeouts.LONG * 1000));
+	}
+	
+	/** Finishes every open activity but kept, which may be null; robotium's finishOpenedActivities would stop the shared Solo for good. */
+	private void finishActivitiesExcept(Activity kept) {
+		final List<Activity> open = m_ActivityTracker.getOpenActivities();
+		// newest first, so each one finishes back onto the one below it
+		for (int i = open.size() - 1; i >= 0; i--) {
+			final Activity a = open.get(i);
+			if (a == kept)
+				continue;
+			a.finish();
+			m_ActivityTracker.waitForFinishedActivity(a, (long)(Timeouts.LONG * 1000));
+		}
+		m_Instrumentation.waitForIdleSync();
+	}
+	
 	// Accessors
 	
+	/**
+	 * Stops the activity tracker, Solo and finder threads that every test shares; the next test to run sets up new
+	 * ones. For runners that keep using the process after the tests are done.
+	 */
+	protected static void releaseHarness() {
+		Harness.release();
+	}
+	
+	/**
+	 * Keeps the starting activity from one test of this class to the next, as long as {@link #resetActivity} can reset it
+	 * and the test didn't {@link #markActivityDirty()} it. Call it before the first {@link #getActivity()} of each test.
+	 */
+	protected void setActivityReuse(boolean reuse) {
+		m_ActivityReuse = reuse;
+	}
+	
+	/**
+	 * Puts a kept starting activity back as a fresh launch would have it, on the test thread, for {@link #setActivityReuse}.
+	 * @return whether the activity can be reused; the default always relaunches
+	 */
+	protected boolean resetActivity(StartingActivity activity) {
+		return false;
+	}
+	
+	/** Don't keep this test's starting activity for the next test, even with {@link #setActivityReuse}. */
+	protected void markActivityDirty() {
+		m_ActivityDirty = true;
+	}
+	
 	protected void setFinishActivitiesWhenDone(boolean finish) {
 		m_DontFinishActivities = finish;
 	}
 	
+	/**
+	 * Whether exactText/containsText/containsSubstring/startsWithText look views up in an index of every text on screen
+	 * rather than comparing each TextView. The index costs a full pass to build and is rebuilt with every snapshot, so it
+	 * only pays off for tests that do many text lookups on a screen that sits still.
+	 */
+	protected void setTextIndexEnabled(boolean enabled) {
+		m_TextIndexEnabled = enabled;
+	}
+	
+	/**
+	 * Where to save the view hierarchy a failing test last searched, named for the test, for {@link SnapshotReplay} to
+	 * search again off the device; null (the default) saves nothing.
+	 */
+	protected void setFailureSnapshotDir(File dir) {
+		m_FailureSnapshotDir = dir;
+	}
+	
+	protected void setTextWaitMode(WaitMode mode) {
+		if (mode == null)
+			throw new IllegalArgumentException("Wait mode may not be null.");
+		m_TextWaitMode = mode;
+	}
+	
+	/**
+	 * How assertTextNotShown decides the text is gone; FULL_TIMEOUT by default. STABLE passes much sooner, but only
+	 * checks the text stays away for a while rather than never showing up within the timeout. A single assertion can
+	 * pick its own mode instead.
+	 */
+	protected void setTextAbsenceMode(AbsenceMode mode) {
+		if (mode == null)
+			throw new IllegalArgumentException("Absence mode may not be null.");
+		m_TextAbsenceMode = mode;
+	}
+	
+	/** How enterText and typeText put text into a view; PER_KEY by default. */
+	protected void setTextEntryMode(TextEntryMode mode) {
+		if (mode == null)
+			throw new IllegalArgumentException("Text entry mode may not be null.");
+		m_TextEntryMode = mode;
+	}
+	
+	/**
+	 * How long text must stay away for {@link AbsenceMode#STABLE}: through this many UI changes (or polls, with
+	 * {@link WaitMode#POLL}) in a row, or for quietTimeout seconds without any UI change at all, whichever comes first.
+	 */
+	protected void setStableAbsence(int changes, double quietTimeout) {
+		if (changes < 1 || quietTimeout < 0)
+			throw new IllegalArgumentException("Stable absence needs at least one change and a non-negative quiet timeout.");
+		m_StableAbsenceChanges = changes;
+		m_StableAbsenceQuietMillis = (long)(quietTimeout * 1000);
+	}
+	
 	// Helpers
 	
+	/** @return the activity that resumed last, even while it's paused on its way out, or null if none has yet */
 	protected Activity getCurrentActivity() {
-		return m_ActivityMonitor.getLastResumedActivity();
+		return m_ActivityTracker.getLastResumedActivity();
+	}
+	
+	/** @return whether {@link #getCurrentActivity()} is resumed right now, rather than between activities */
+	protected boolean isActivityResumed() {
+		return m_ActivityTracker.isActivityResumed();
 	}
 	
+	private String describeCurrentActivity() {
+		final Activity current = getCurrentActivity();
+		return current == null ? "none" : current.getClass().getSimpleName();
+	}
+	
+	/** @return every activity lifecycle transition seen so far in this test, or an empty list if the platform can't report them */
+	protected List<String> getActivityTransitions() {
+		if (!(m_ActivityTracker instanceof LifecycleActivityTracker))
+			return Collections.emptyList();
+		
+		List<String> transitions = new ArrayList<String>();
+		for (LifecycleActivityTracker.Transition t : ((LifecycleActivityTracker)m_ActivityTracker).getTransitions())
+			transitions.add(t.toString());
+		return transitions;
+	}
+	
+	// the app's resources are the same through any of its activities, or none
 	protected String getString(int resId) {
-		return getCurrentActivity().getString(resId);
+		final Activity activity = getCurrentActivity();
+		return activity != null ? activity.getString(resId) : m_Instrumentation.getTargetContext().getString(resId);
 	}
 	
 	protected String getString(int resId, Object... args) {
-		return getCurrentActivity().getString(resId, args);
+		final Activity activity = getCurrentActivity();
+		return activity != null ? activity.getString(resId, args) : m_Instrumentation.getTargetContext().getString(resId, args);
 	}
 	
 	protected boolean waitForActivity(Class<?> activityClass) {
 		return waitForActivity(activityClass, Timeouts.LONG);
 	}
 	
-	protected boolean waitForActivity(Class<?> activityClass, double timeout) {
-		return m_ActivityMonitor.waitForResumedActivity(activityClass, (long)(timeout * 1000 + 1));
+	protected boolean waitForActivity(final Class<?> activityClass, final double timeout) {
+		return m_Stats.time(HelperStats.Family.WAIT, new HelperStats.Timed<Boolean>() {
+			@Override
+			Boolean run() {
+				return m_ActivityTracker.waitForResumedActivity(activityClass, (long)(timeout * 1000 + 1));
+			}
+		});
 	}
 	
 	protected boolean waitForActivityToFinish(Activity a) {
 		return waitForActivityToFinish(a, Timeouts.LONG);
 	}
 	
-	protected boolean waitForActivityToFinish(Activity a, double timeout) {
-		return m_ActivityMonitor.waitForFinishedActivity(a, (long)(timeout * 1000 + 1));
+	protected boolean waitForActivityToFinish(final Activity a, final double timeout) {
+		return m_Stats.time(HelperStats.Family.WAIT, new HelperStats.Timed<Boolean>() {
+			@Override
+			Boolean run() {
+				return m_ActivityTracker.waitForFinishedActivity(a, (long)(timeout * 1000 + 1));
+			}
+		});
 	}
 	
 	protected void assertActivityShown(Class<?> activityClass) {
@@ -292,35 +438,128 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		assertActivityShown(null, activityClass, timeout);
 	}
 	
-	protected void assertActivityShown(String msg, Class<?> activityClass, double timeout) {
-		if (!waitForActivity(activityClass, timeout)) {
-			if (msg == null)
-				msg = String.format("%s not shown after %f seconds. Current activity: %s", 
-						activityClass.getSimpleName(), timeout, getCurrentActivity().getClass().getSimpleName());
-			fail(msg);
-		}
+	protected void assertActivityShown(final String msg, final Class<?> activityClass, final double timeout) {
+		m_Stats.time(HelperStats.Family.ASSERT, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				if (!waitForActivity(activityClass, timeout))
+					fail(msg != null ? msg : String.format("%s not shown after %f seconds. Current activity: %s", 
+							activityClass.getSimpleName(), timeout, describeCurrentActivity()));
+				return null;
+			}
+		});
 	}
 	
-	protected boolean waitForFragmentByTag(String tag) {
-		return m_Solo.waitForFragmentByTag(tag);
+	protected boolean waitForFragmentByTag(final String tag) {
+		return m_Stats.time(HelperStats.Family.WAIT, new HelperStats.Timed<Boolean>() {
+			@Override
+			Boolean run() {
+				return m_Solo.waitForFragmentByTag(tag);
+			}
+		});
 	}
 	
 	protected boolean waitForText(CharSequence text) {
 		return waitForText(text, Timeouts.LONG);
 	}
 	
-	protected boolean waitForText(CharSequence text, double timeout) {
+	protected boolean waitForText(final CharSequence text, final double timeout) {
+		return m_Stats.time(HelperStats.Family.WAIT, new HelperStats.Timed<Boolean>() {
+			@Override
+			Boolean run() {
+				if (m_TextWaitMode == WaitMode.POLL)
+					return pollForText(text, timeout);
+				
+				final long end = SystemClock.uptimeMillis() + (long)(timeout * 1000);
+				while (true) {
+					// take the generation before looking, so a change that races with the search still wakes us
+					m_LayoutSignal.attach(getTopWindowRoots());
+					final int generation = m_LayoutSignal.getGeneration();
+					
+					if (!findViewsOrEmpty(containsText(text)).isEmpty())
+						return true;
+					
+					final long remaining = end - SystemClock.uptimeMillis();
+					if (remaining <= 0)
+						return false;
+					
+					final long sleepStart = HelperStats.start();
+					m_LayoutSignal.awaitChange(generation, Math.min(remaining, MAX_UI_EVENT_WAIT));
+					m_Stats.end(HelperStats.Family.SLEEP, sleepStart);
+				}
+			}
+		});
+	}
+	
+	private boolean pollForText(CharSequence text, double timeout) {
 		final long wait = Math.min(100, (long)(timeout * 100));
 		final long end = System.currentTimeMillis() + (long)(timeout * 1000);
 		
 		boolean found = false;
 		while (System.currentTimeMillis() < end &&
-			   !(found |= !findViewsOrEmpty(containsText(text)).isEmpty()))
+			   !(found |= !findViewsOrEmpty(containsText(text)).isEmpty())) {
+			final long sleepStart = HelperStats.start();
 			SystemClock.sleep(wait);
+			m_Stats.end(HelperStats.Family.SLEEP, sleepStart);
+		}
 		
 		return found;
 	}
 	
+	protected boolean waitForTextToDisappear(CharSequence text) {
+		return waitForTextToDisappear(text, Timeouts.LONG);
+	}
+	
+	/** @return true once text has stayed away as {@link #setStableAbsence} describes, false if it's still shown after timeout */
+	protected boolean waitForTextToDisappear(final CharSequence text, final double timeout) {
+		return m_Stats.time(HelperStats.Family.WAIT, new HelperStats.Timed<Boolean>() {
+			@Override
+			Boolean run() {
+				final long end = SystemClock.uptimeMillis() + (long)(timeout * 1000);
+				final UiChangeSignal signal = m_TextWaitMode == WaitMode.UI_EVENTS ? m_LayoutSignal : null;
+				int absentChanges = 0;
+				long quietMillis = 0;
+				boolean changed = true;
+				while (true) {
+					int generation = 0;
+					if (signal != null) {
+						signal.attach(getTopWindowRoots());
+						generation = signal.getGeneration();
+					}
+					
+					// a re-check with nothing changed since the last one (a new window, say) doesn't count as another change
+					final boolean absent = findViewsOrEmpty(containsText(text)).isEmpty();
+					if (!absent) {
+						absentChanges = 0;
+						quietMillis = 0;
+					} else if (changed) {
+						absentChanges++;
+						quietMillis = 0;
+					}
+					if (absentChanges >= m_StableAbsenceChanges || (absent && quietMillis >= m_StableAbsenceQuietMillis && signal != null))
+						return true;
+					
+					final long remaining = end - SystemClock.uptimeMillis();
+					if (remaining <= 0)
+						return absent;
+					
+					final long sleepStart = HelperStats.start();
+					if (signal == null) {
+						SystemClock.sleep(Math.min(remaining, 100));
+					} else {
+						long wait = Math.min(remaining, MAX_UI_EVENT_WAIT);
+						if (absent)
+							wait = Math.max(1, Math.min(wait, m_StableAbsenceQuietMillis - quietMillis));
+						changed = signal.awaitChange(generation, wait);
+						if (!changed)
+							quietMillis += wait;
+					}
+					m_Stats.end(HelperStats.Family.SLEEP, sleepStart);
+				}
+			}
+		});
+	}
+	
 	protected void assertTextShown(CharSequence text) {
 		assertTextShown(null, text);
 	}
@@ -333,11 +572,15 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		assertTextShown(null, text, timeout);
 	}
 	
-	protected void assertTextShown(String msg, CharSequence text, double timeout) {
-		if (msg == null)
-			msg = String.format("%s not shown after %f seconds", text, timeout);
-		
-		assertTrue(msg, waitForText(text, timeout));
+	protected void assertTextShown(final String msg, final CharSequence text, final double timeout) {
+		m_Stats.time(HelperStats.Family.ASSERT, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				if (!waitForText(text, timeout))
+					fail(msg != null ? msg : String.format("%s not shown after %f seconds", text, timeout));
+				return null;
+			}
+		});
 	}
 	
 	protected void assertTextNotShown(CharSequence text) {
@@ -352,11 +595,28 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		assertTextNotShown(null, text, timeout);
 	}
 	
+	// see setTextAbsenceMode for whether this can pass before the timeout
 	protected void assertTextNotShown(String msg, CharSequence text, double timeout) {
-		if (msg == null)
-			msg = String.format("%s still shown after %f seconds", text, timeout);
+		assertTextNotShown(msg, text, timeout, m_TextAbsenceMode);
+	}
+	
+	protected void assertTextNotShown(CharSequence text, AbsenceMode mode) {
+		assertTextNotShown(null, text, Timeouts.LONG, mode);
+	}
+	
+	/** Decides the text is gone as mode says for this one call, whatever {@link #setTextAbsenceMode} is. */
+	protected void assertTextNotShown(final String msg, final CharSequence text, final double timeout, final AbsenceMode mode) {
+		if (mode == null)
+			throw new IllegalArgumentException("Absence mode may not be null.");
 		
-		assertFalse(msg, waitForText(text, timeout));
+		m_Stats.time(HelperStats.Family.ASSERT, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				if (mode == AbsenceMode.STABLE ? !waitForTextToDisappear(text, timeout) : waitForText(text, timeout))
+					fail(msg != null ? msg : String.format("%s still shown after %f seconds", text, timeout));
+				return null;
+			}
+		});
 	}
 	
 	protected Intent assertActivityFinished(Activity a) {
@@ -379,34 +639,72 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		return assertActivityFinished(null, a, resultCode, timeout);
 	}
 	
-	protected Intent assertActivityFinished(String msg, Activity a, Integer resultCode, double timeout) {
-		if (!waitForActivityToFinish(a, timeout)) {
-			if (msg == null)
-				msg = String.format("%s didn't finish after %f seconds.", a, timeout);
-			fail(msg);
-		}
-		
-		try {
-			if (resultCode != null) {
-				Field mResultCode = Activity.class.getDeclaredField("mResultCode");
-				mResultCode.setAccessible(true);									
-				assertEquals(a.toString() + " finished, but with wrong result code", (Integer)mResultCode.get(a), resultCode);
+	protected Intent assertActivityFinished(final String msg, final Activity a, final Integer resultCode, final double timeout) {
+		return m_Stats.time(HelperStats.Family.ASSERT, new HelperStats.Timed<Intent>() {
+			@Override
+			Intent run() {
+				if (!waitForActivityToFinish(a, timeout))
+					fail(msg != null ? msg : String.format("%s didn't finish after %f seconds.", a, timeout));
+				
+				final Field mResultCode = FrameworkInternals.ACTIVITY_RESULT_CODE;
+				final Field mResultData = FrameworkInternals.ACTIVITY_RESULT_DATA;
+				if (mResultData == null || (resultCode != null && mResultCode == null))
+					throw new RuntimeException("Unable to access the result fields of Activity.");
+				
+				try {
+					if (resultCode != null)
+						assertEquals(a.toString() + " finished, but with wrong result code", (Integer)mResultCode.get(a), resultCode);
+					
+					return (Intent)mResultData.get(a);
+				} catch (IllegalArgumentException e) {
+					throw new RuntimeException(e);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+	}
+	
+	/** @return the view with id, waiting up to {@link #ID_TIMEOUT} for it to show up, or null if it doesn't */
+	protected View getView(final int id) {
+		return m_Stats.time(HelperStats.Family.FIND, new HelperStats.Timed<View>() {
+			@Override
+			View run() {
+				final ViewSnapshot snapshot = waitForIds(Arrays.asList(id));
+				final int node = snapshot.findViewById(id);
+				return node >= 0 ? snapshot.views.get(node) : null;
 			}
+		});
+	}
+	
+	/**
+	 * @return the first snapshot with a view for every one of ids or, after {@link #ID_TIMEOUT}, the last one taken; a
+	 *         pinned snapshot straight away
+	 */
+	private ViewSnapshot waitForIds(List<Integer> ids) {
+		final long end = SystemClock.uptimeMillis() + (long)(ID_TIMEOUT * 1000);
+		while (true) {
+			final ViewSnapshot snapshot = getSnapshot();
+			// the generation snapshot was taken at, so any change since wakes the wait below
+			final int generation = m_SnapshotSignalGeneration;
+			if (m_SnapshotPinned || hasIds(snapshot, ids))
+				return snapshot;
+			
+			final long remaining = end - SystemClock.uptimeMillis();
+			if (remaining <= 0)
+				return snapshot;
 			
-			Field mResultData = Activity.class.getDeclaredField("mResultData");
-			mResultData.setAccessible(true);
-			return (Intent)mResultData.get(a);
-		} catch (NoSuchFieldException e) {
-			throw new RuntimeException(e);
-		} catch (IllegalArgumentException e) {
-			throw new RuntimeException(e);
-		} catch (IllegalAccessException e) {
-			throw new RuntimeException(e);
+			final long sleepStart = HelperStats.start();
+			m_LayoutSignal.awaitChange(generation, Math.min(remaining, MAX_UI_EVENT_WAIT));
+			m_Stats.end(HelperStats.Family.SLEEP, sleepStart);
 		}
 	}
 	
-	protected View getView(int id) {
-		return m_Solo.getView(id);
+	private static boolean hasIds(ViewSnapshot snapshot, List<Integer> ids) {
+		for (int id : ids)
+			if (snapshot.findViewById(id) < 0)
+				return false;
+		return true;
 	}
 	
 	protected <T> T getView(int id, Class<T> type) {
@@ -425,6 +723,10 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		}
 	}
 	
+	/**
+	 * The Solo shared by every test in the process. Don't call its finishOpenedActivities, which stops it for good, or
+	 * keep it from before getActivity, which replaces it when it hands back an activity kept from the last test.
+	 */
 	protected Solo getSolo() {
 		return m_Solo;
 	}
@@ -462,27 +764,57 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 	}
 	
 	protected void clickBack() {
-		m_Instrumentation.sendKeyDownUpSync(KeyEvent.KEYCODE_BACK);
+		m_Stats.time(HelperStats.Family.CLICK, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				m_Instrumentation.sendKeyDownUpSync(KeyEvent.KEYCODE_BACK);
+				return null;
+			}
+		});
 	}
 	
 	protected void clickActionBarHome() {
-		m_Solo.clickOnActionBarHomeButton();
+		m_Stats.time(HelperStats.Family.CLICK, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				m_Solo.clickOnActionBarHomeButton();
+				return null;
+			}
+		});
 	}
 	
 	protected void clickHome() {
-		m_Instrumentation.sendKeyDownUpSync(KeyEvent.KEYCODE_HOME);
+		m_Stats.time(HelperStats.Family.CLICK, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				m_Instrumentation.sendKeyDownUpSync(KeyEvent.KEYCODE_HOME);
+				return null;
+			}
+		});
 	}
 	
 	protected void clickMenu() {
-		m_Instrumentation.sendKeyDownUpSync(KeyEvent.KEYCODE_MENU);
+		m_Stats.time(HelperStats.Family.CLICK, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				m_Instrumentation.sendKeyDownUpSync(KeyEvent.KEYCODE_MENU);
+				return null;
+			}
+		});
 	}
 	
 	protected void clickView(int id) {
 		clickView(getView(id));
 	}
 	
-	protected void clickView(View view) {
-		m_Solo.clickOnView(view);
+	protected void clickView(final View view) {
+		m_Stats.time(HelperStats.Family.CLICK, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				m_Solo.clickOnView(view);
+				return null;
+			}
+		});
 	}
 	
 	protected void clickButton(int id) {
@@ -534,13 +866,19 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		clickRadioButton(getRadioButton(id));
 	}
 	
-	protected void clickRadioButton(RadioButton rb) {
+	protected void clickRadioButton(final RadioButton rb) {
 		assertNotNull("Tried to click null RadioButton.", rb);
 		clickView(rb);
 	}
 	
-	protected void clickText(String text){
-		m_Solo.clickOnText(text);
+	protected void clickText(final String text){
+		m_Stats.time(HelperStats.Family.CLICK, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				m_Solo.clickOnText(text);
+				return null;
+			}
+		});
 	}
 	
 	protected void clickTextView(int id) {
@@ -565,32 +903,91 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		clearEditText(getEditText(id));
 	}
 	
-	protected void clearEditText(EditText editText) {
-		assertNotNull("Tried to clear null EditText.", editText);
-		m_Solo.clearEditText(editText);
+	protected void clearEditText(final EditText editText) {
+		m_Stats.time(HelperStats.Family.ENTER_TEXT, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				assertNotNull("Tried to clear null EditText.", editText);
+				m_Solo.clearEditText(editText);
+				return null;
+			}
+		});
 	}
 	
 	protected void enterText(int id, CharSequence text) {
 		enterText(getEditText(id), text);
 	}
 	
-	protected void enterText(EditText editText, CharSequence text) {
-		assertNotNull(String.format("Tried to enter '%s' into null EditText.", text), editText);
-		m_Solo.enterText(editText, text.toString());
+	protected void enterText(final EditText editText, final CharSequence text) {
+		m_Stats.time(HelperStats.Family.ENTER_TEXT, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				assertNotNull(String.format("Tried to enter '%s' into null EditText.", text), editText);
+				if (m_TextEntryMode != TextEntryMode.BULK || !commitText(editText, text, true))
+					m_Solo.enterText(editText, text.toString());
+				return null;
+			}
+		});
 	}
 	
 	protected void typeText(int id, CharSequence text) {
 		typeText(getEditText(id), text);
 	}
 	
-	protected void typeText(EditText editText, CharSequence text) {
-		assertNotNull(String.format("Tried to type '%s' into null EditText.", text), editText);
-		m_Solo.typeText(editText, text.toString());
+	protected void typeText(final EditText editText, final CharSequence text) {
+		m_Stats.time(HelperStats.Family.ENTER_TEXT, new HelperStats.Timed<Void>() {
+			@Override
+			Void run() {
+				assertNotNull(String.format("Tried to type '%s' into null EditText.", text), editText);
+				if (m_TextEntryMode != TextEntryMode.BULK || !commitText(editText, text, true))
+					m_Solo.typeText(editText, text.toString());
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * TextEntryMode.BULK; sync waits for idle afterwards, as a sync after the last key would.
+	 * @return false if editText can't take text this way; text that only partly went in is taken back out
+	 */
+	boolean commitText(final EditText editText, final CharSequence text, boolean sync) {
+		final boolean[] committed = new boolean[1];
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				if (!editText.isEnabled())
+					return;
+				
+				// focused first, so the connection is the one the keyboard would get
+				editText.requestFocus();
+				final String original = editText.getText().toString();
+				editText.setSelection(original.length());
+				final InputConnection connection = editText.onCreateInputConnection(new EditorInfo());
+				if (connection == null)
+					return;
+				
+				connection.beginBatchEdit();
+				final boolean accepted = connection.commitText(text, 1);
+				connection.endBatchEdit();
+				
+				final String result = editText.getText().toString();
+				committed[0] = accepted && result.equals(original + text);
+				if (!committed[0] && !result.equals(original)) {
+					editText.setText(original);
+					editText.setSelection(original.length());
+				}
+			}
+		});
+		
+		if (sync)
+			m_Instrumentation.waitForIdleSync();
+		return committed[0];
 	}
 	
 	
 	// FindView stuff
 	
+	// node is the same test asked of a captured snapshot, or null if it can only be asked of live views
 	private static abstract class Predicate<T> {
 		abstract boolean test(T specimen);
 	}
@@ -599,71 +996,280 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		abstract boolean test(A a, B b);
 	}
 	
+	/**
+	 * A lazily-evaluated view query: filters only record stages, and nothing is searched until the views are asked for.
+	 * Over a {@link ViewSnapshot} the stages run on its nodes through a {@link QueryPlan}, cheapest first; live views get
+	 * them in the order they were added.
+	 */
 	protected static class FindViewResult<T extends View> {
 		
+		static abstract class Source {
+			abstract List<? extends View> views();
+			abstract String describe();
+			
+			/** @return the snapshot views() comes from, or null if the views don't come from one */
+			ViewSnapshot snapshot() {
+				return null;
+			}
+			
+			/** @return the nodes of snapshot that views() would return, in the same order, or null for all of them */
+			int[] nodes(ViewSnapshot snapshot) {
+				return null;
+			}
+		}
+		
+		private static class Stage {
+			final Predicate<View> predicate;
+			final NodeStage node;
+			
+			Stage(Predicate<View> predicate, NodeStage node) {
+				this.predicate = predicate;
+				this.node = node;
+			}
+			
+			// as a QueryPlan label
+			@Override
+			public String toString() {
+				return node.toString();
+			}
+		}
+		
 		@SuppressWarnings("unchecked")
 		static <T extends View> FindViewResult<T> cast(FindViewResult<? extends View> result, Class<T> type) {
 			return (FindViewResult<T>)result;
 		}
 		
-		List<T> views;
-		String description;
+		private final Source m_Source;
+		private final HelperStats m_Stats;
+		private final List<Stage> m_Stages;
+		private List<T> m_Views;
+		// how the last search over a snapshot went, or null if the last search was over live views
+		private QueryPlan m_Plan;
+		
+		// the snapshot being searched, while node stages are prepared against it
+		private ViewSnapshot m_EvaluatingSnapshot;
 		
-		FindViewResult() {
-			views = new LinkedList<T>();
-			description = "";
+		FindViewResult(Source source, HelperStats stats) {
+			m_Source = source;
+			m_Stats = stats;
+			m_Stages = new ArrayList<Stage>();
 		}
 		
-		void filter(Predicate<T> predicate) {
-			Iterator<T> iter = views.iterator();
-			while (iter.hasNext()) {
-				if (!predicate.test(iter.next()))
-					iter.remove();
-			}
+		/** @param node the same stage over snapshot nodes, and how it reads in the description */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		void filter(Predicate<? super T> predicate, NodeStage node) {
+			// every view that reaches this stage has passed the stages that narrowed it to T
+			m_Stages.add(new Stage((Predicate)predicate, node));
+			m_Views = null;
 		}
 		
-		<A> void filter(final CombinationMatch<A> match, final TwoParamPredicate<A, T> test) {
+		<A extends View> void filter(final CombinationMatch<A> match, final TwoParamPredicate<A, T> test, NodeStage node) {
 			filter(new Predicate<T>() {
 				@Override
 				boolean test(T specimen) {
 					return match.matches(test, specimen);
 				}
-			});
+			}, node);
+		}
+		
+		// match's potentials as nodes of the snapshot this result is searching; described as match is
+		NodeCombination.Source nodesOf(final CombinationMatch<?> match) {
+			return new NodeCombination.Source() {
+				@Override
+				NodeCombination resolve(HierarchyNodes nodes) {
+					final ViewSnapshot snapshot = m_EvaluatingSnapshot;
+					if (snapshot == null || snapshot.nodes != nodes)
+						return null;
+					return match.resolve(snapshot);
+				}
+				
+				@Override
+				public String toString() {
+					return match.toString();
+				}
+			};
+		}
+		
+		@SuppressWarnings("unchecked")
+		private List<T> evaluate(int limit) {
+			final ViewSnapshot snapshot = m_Source.snapshot();
+			m_Plan = null;
+			if (snapshot != null) {
+				List<NodePredicate> chain = new ArrayList<NodePredicate>(m_Stages.size());
+				for (Stage stage : m_Stages)
+					chain.add(stage.node.predicate);
+				
+				final long start = HelperStats.start();
+				m_EvaluatingSnapshot = snapshot;
+				try {
+					m_Plan = QueryPlan.prepare(snapshot.nodes, chain, m_Stages);
+					if (m_Plan != null) {
+						final int[] nodes = m_Plan.evaluate(m_Source.nodes(snapshot), limit, m_Stats);
+						ArrayList<T> matches = new ArrayList<T>(nodes.length);
+						for (int node : nodes)
+							matches.add((T)snapshot.views.get(node));
+						return matches;
+					}
+				} finally {
+					m_EvaluatingSnapshot = null;
+					m_Stats.end(HelperStats.Family.EVALUATE, start);
+				}
+			}
+			
+			final List<? extends View> views = m_Source.views();
+			final long start = HelperStats.start();
+			ArrayList<T> matches = new ArrayList<T>();
+			final int stageCount = m_Stages.size();
+			int visited = 0;
+			long tests = 0;
+			
+			for (View v : views) {
+				visited++;
+				int stage = 0;
+				while (stage < stageCount && m_Stages.get(stage).predicate.test(v))
+					stage++;
+				tests += Math.min(stage + 1, stageCount);
+				
+				if (stage == stageCount) {
+					matches.add((T)v);
+					if (matches.size() >= limit)
+						break;
+				}
+			}
+			
+			m_Stats.searched(visited, tests);
+			m_Stats.end(HelperStats.Family.EVALUATE, start);
+			return matches;
+		}
+		
+		List<T> getViews() {
+			if (m_Views == null) {
+				m_Stats.queried();
+				m_Views = evaluate(Integer.MAX_VALUE);
+			}
+			return m_Views;
 		}
+		
+		// searches again even if it already has, for when the screen may have changed since
+		List<T> refresh() {
+			m_Views = null;
+			return getViews();
+		}
+		
+		T getFirst() {
+			if (m_Views == null)
+				m_Stats.queried();
+			List<T> views = m_Views != null ? m_Views : evaluate(1);
+			return views.isEmpty() ? null : views.get(0);
+		}
+		
+		String getDescription() {
+			String description = m_Source.describe();
+			for (Stage stage : m_Stages)
+				description = stage.node.describe(description);
+			return description;
+		}
+		
+		/** @return the order the stages ran in on the last search, and how many views each one saw and let through */
+		String explain() {
+			if (m_Views == null)
+				getViews();
+			final String plan = m_Plan != null ? m_Plan.explain() : "live views, stages in the order given";
+			return String.format("%s\n%s", getDescription(), plan);
+		}
+	}
+	
+	protected <T extends View> T findView(final FindViewResult<T> pattern) {
+		return m_Stats.time(HelperStats.Family.FIND, new HelperStats.Timed<T>() {
+			@Override
+			T run() {
+				assertNotNull("Tried to find views with null pattern.", pattern);
+				T view = pattern.getFirst();
+				if (view == null)
+					fail(String.format("Failed to find any %s", pattern.getDescription()));
+				return view;
+			}
+		});
 	}
 	
-	protected <T extends View> T findView(FindViewResult<T> pattern) {
-		return findViews(pattern).get(0);
+	protected <T extends View> List<T> findViews(final FindViewResult<T> pattern) {
+		return m_Stats.time(HelperStats.Family.FIND, new HelperStats.Timed<List<T>>() {
+			@Override
+			List<T> run() {
+				assertNotNull("Tried to find views with null pattern.", pattern);
+				List<T> views = pattern.getViews();
+				if (views.isEmpty())
+					fail(String.format("Failed to find any %s", pattern.getDescription()));
+				return views;
+			}
+		});
+	}
+	
+	/**
+	 * Searches for pattern's views, if it hasn't already, and describes how: the order its stages ran in, what each was
+	 * expected to cost and let through, and how many views each was actually asked about. For working out why a query
+	 * is slow.
+	 */
+	protected String explainQuery(FindViewResult<?> pattern) {
+		assertNotNull("Tried to explain a null pattern.", pattern);
+		return pattern.explain();
+	}
+	
+	protected <T extends View> List<T> findViewsOrEmpty(final FindViewResult<T> pattern) {
+		return m_Stats.time(HelperStats.Family.FIND, new HelperStats.Timed<List<T>>() {
+			@Override
+			List<T> run() {
+				assertNotNull("Tried to find views with null pattern.", pattern);
+				return pattern.getViews();
+			}
+		});
 	}
 	
-	protected <T extends View> List<T> findViews(FindViewResult<T> pattern) {
-		assertNotNull("Tried to find views with null pattern.", pattern);
-		assertFalse(String.format("Failed to find any %s", pattern.description), pattern.views.isEmpty());
-		return pattern.views;
+	protected Batch batch() {
+		return new Batch(this, m_Stats);
 	}
 	
-	protected <T extends View> List<T> findViewsOrEmpty(FindViewResult<T> pattern) {
-		assertNotNull("Tried to find views with null pattern.", pattern);
-		return pattern.views;
+	protected Script script() {
+		return new Script(this, m_Stats);
+	}
+	
+	// a tap in the middle of view, without Solo's waits around it
+	void tap(View view) {
+		final int[] xy = new int[2];
+		view.getLocationOnScreen(xy);
+		final float x = xy[0] + view.getWidth() / 2f, y = xy[1] + view.getHeight() / 2f;
+		
+		final long down = SystemClock.uptimeMillis();
+		MotionEvent event = MotionEvent.obtain(down, down, MotionEvent.ACTION_DOWN, x, y, 0);
+		m_Instrumentation.sendPointerSync(event);
+		event.recycle();
+		event = MotionEvent.obtain(down, SystemClock.uptimeMillis(), MotionEvent.ACTION_UP, x, y, 0);
+		m_Instrumentation.sendPointerSync(event);
+		event.recycle();
+	}
+	
+	// none until an activity has resumed
+	private List<View> getTopWindowRoots() {
+		final Activity activity = getCurrentActivity();
+		return activity == null ? Collections.<View>emptyList() : getTopWindowRootView(activity.getWindowManager());
 	}
 	
 	private List<View> getTopWindowRootView(WindowManager wm) {
 		try {
-			if (wm.getClass().getName().equals("android.view.Window$LocalWindowManager")) {
-				Field f = wm.getClass().getSuperclass().getDeclaredField("mWindowManager");
-				f.setAccessible(true);
-				wm = (WindowManager)f.get(wm);
-			}
+			if (wm.getClass() == FrameworkInternals.LOCAL_WINDOW_MANAGER)
+				wm = (WindowManager)FrameworkInternals.LOCAL_WINDOW_MANAGER_PARENT.get(wm);
 			
-			Field rootsField = wm.getClass().getDeclaredField("mRoots");
-			rootsField.setAccessible(true);
+			// a missing field has already been reported once by FrameworkInternals
+			Field rootsField = FrameworkInternals.field(wm.getClass(), "mRoots");
+			if (rootsField == null)
+				return Collections.emptyList();
 			Object[] roots = (Object[])rootsField.get(wm);
 			Class<?> viewRootImplClass = roots[0].getClass();
 			
-			Field attrsField = viewRootImplClass.getDeclaredField("mWindowAttributes");
-			attrsField.setAccessible(true);
-			Field viewField = viewRootImplClass.getDeclaredField("mView");
-			viewField.setAccessible(true);
+			Field attrsField = FrameworkInternals.field(viewRootImplClass, "mWindowAttributes");
+			Field viewField = FrameworkInternals.field(viewRootImplClass, "mView");
+			if (attrsField == null || viewField == null)
+				return Collections.emptyList();
 			LinkedList<View> rootViews = new LinkedList<View>();
 			for (int top = roots.length - 1; top >= 0; top--) {
 				rootViews.add((View)viewField.get(roots[top]));
@@ -681,52 +1287,125 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		}		
 	}
 	
-	private void walkTree(List<View> list, View root) {
-		list.add(root);
-		if (root instanceof ViewGroup) {
-			ViewGroup vg = (ViewGroup)root;
-			for (int i = 0; i < vg.getChildCount(); i++)
-				walkTree(list, vg.getChildAt(i));
+	ViewSnapshot getSnapshot() {
+		if (m_SnapshotPinned)
+			return m_Snapshot;
+		
+		final long syncStart = HelperStats.start();
+		getInstrumentation().waitForIdleSync();
+		m_Stats.end(HelperStats.Family.IDLE_SYNC, syncStart);
+		
+		final Activity activity = getCurrentActivity();
+		final List<View> roots = getTopWindowRoots();
+		
+		// read the generation before capturing, so a change that races with the capture invalidates what we're about to cache
+		m_LayoutSignal.attach(roots);
+		final int signalGeneration = m_LayoutSignal.getGeneration();
+		
+		if (m_Snapshot == null || !m_Snapshot.isCurrent(activity, roots) || m_SnapshotSignalGeneration != signalGeneration) {
+			final int generation = ++m_SnapshotGeneration;
+			final ViewSnapshot previous = m_Snapshot;
+			final int since = m_SnapshotSignalGeneration;
+			final ViewSnapshot[] captured = new ViewSnapshot[1];
+			final long captureStart = HelperStats.start();
+			m_Instrumentation.runOnMainSync(new Runnable() {
+				@Override
+				public void run() {
+					// a window that's only redrawn (a cursor blinking, an animation running) or not changed at all needn't be walked again
+					ViewSnapshot.RootChange[] changes = new ViewSnapshot.RootChange[roots.size()];
+					for (int i = 0; i < changes.length; i++)
+						changes[i] = m_LayoutSignal.changeSince(roots.get(i), since);
+					captured[0] = ViewSnapshot.capture(generation, activity, roots, previous, changes);
+				}
+			});
+			m_Stats.end(HelperStats.Family.CAPTURE, captureStart);
+			m_Stats.captured(captured[0].nodes.size, captured[0] == previous ? previous.nodes.size : captured[0].unchanged);
+			m_Snapshot = captured[0];
+			m_SnapshotSignalGeneration = signalGeneration;
 		}
+		
+		return m_Snapshot;
 	}
 	
-	protected FindViewResult<View> all() {
-		FindViewResult<View> result = new FindViewResult<View>();
-		result.description = "views";
-		getInstrumentation().waitForIdleSync();
-		for (View root : getTopWindowRootView(getCurrentActivity().getWindowManager()))
-			walkTree(result.views, root);
-		return result;
+	// the snapshot the current query's views came from, without re-syncing for every specimen
+	private ViewSnapshot getLastSnapshot() {
+		return m_Snapshot != null ? m_Snapshot : getSnapshot();
 	}
 	
-	@SuppressWarnings("unchecked")
-	protected FindViewResult<Button> overflowMenuButton() {
-		final Class<Button> overflowMenuButtonCls, absOverflowMenuButtonCls;
-		Class<Button> temp;
-		try {
-			temp = (Class<Button>)Class.forName("com.android.internal.view.menu.ActionMenuPresenter$OverflowMenuButton");
-		} catch (ClassNotFoundException e) {
-			temp = null;
-		}
-		overflowMenuButtonCls = temp;
+	// while pinned, every query is answered from snapshot without syncing again
+	void pinSnapshot(ViewSnapshot snapshot) {
+		m_SnapshotPinned = snapshot != null;
+		if (snapshot != null)
+			m_Snapshot = snapshot;
+	}
+	
+	// for tests that change the hierarchy in ways that don't cause a layout or a draw
+	protected void invalidateViewSnapshot() {
+		m_SnapshotPinned = false;
+		m_Snapshot = null;
+	}
+	
+	/** Writes the hierarchy as it is now to file, in the format {@link SnapshotReplay} reads on a plain JVM. */
+	protected File saveViewSnapshot(File file) throws IOException {
+		writeSnapshot(getSnapshot(), file);
+		return file;
+	}
+	
+	private void writeSnapshot(ViewSnapshot snapshot, File file) throws IOException {
+		final String activity = snapshot.activity == null ? "no activity" : snapshot.activity.getClass().getName();
+		SnapshotFile.write(snapshot.nodes, getClass().getName() + "#" + getName() + " in " + activity, snapshot.activityWindow(), file);
+	}
+	
+	// the last snapshot is the one the failing query searched, unless the failure had nothing to do with views
+	private void saveFailureSnapshot() {
+		final ViewSnapshot snapshot = m_Snapshot;
+		if (m_FailureSnapshotDir == null || snapshot == null)
+			return;
 		
+		final File file = new File(m_FailureSnapshotDir, getClass().getName() + "." + getName() + ".csfh");
 		try {
-			temp = (Class<Button>)Class.forName("com.actionbarsherlock.internal.view.menu.ActionMenuPresenter$OverflowMenuButton");
-		} catch (ClassNotFoundException e) {
-			temp = null;
+			m_FailureSnapshotDir.mkdirs();
+			writeSnapshot(snapshot, file);
+			Log.i("CSFActivityTestCase", String.format("Saved the view hierarchy %s failed on to %s", getName(), file));
+		} catch (IOException e) {
+			Log.w("CSFActivityTestCase", "Unable to save the view hierarchy to " + file, e);
 		}
-		absOverflowMenuButtonCls = temp;
+	}
+	
+	protected FindViewResult<View> all() {
+		return new FindViewResult<View>(new FindViewResult.Source() {
+			@Override
+			List<View> views() {
+				return getSnapshot().views;
+			}
+			
+			@Override
+			ViewSnapshot snapshot() {
+				return getSnapshot();
+			}
+			
+			@Override
+			String describe() {
+				return "views";
+			}
+		}, m_Stats);
+	}
+	
+	protected FindViewResult<Button> overflowMenuButton() {
+		final Class<?> overflowMenuButtonCls = FrameworkInternals.OVERFLOW_MENU_BUTTON;
+		final Class<?> absOverflowMenuButtonCls = FrameworkInternals.ABS_OVERFLOW_MENU_BUTTON;
 		
 		FindViewResult<View> result = all();
 		
-		result.description = String.format("%s that are ActionBar menu buttons", result.description);
+		final NodePredicate node = NodePredicate.isA(overflowMenuButtonCls != null ? overflowMenuButtonCls.getName() : null,
+				absOverflowMenuButtonCls != null ? absOverflowMenuButtonCls.getName() : null);
 		
 		result.filter(new Predicate<View>() { 
 			boolean test(View specimen) { 
 				return (overflowMenuButtonCls != null && overflowMenuButtonCls.isAssignableFrom(specimen.getClass())) || 
 					   (absOverflowMenuButtonCls != null && absOverflowMenuButtonCls.isAssignableFrom(specimen.getClass())); 
 			}
-		});
+		}, new NodeStage(node, "%s that are ActionBar menu buttons"));
 		
 		return FindViewResult.cast(result, Button.class);
 	}
@@ -735,69 +1414,158 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		return withIds(Arrays.asList(id));
 	}
 	
-	protected FindViewResult<View> withIds(List<Integer> ids) {
+	// like every other query, searches the screen as it is; getView(int) is the one that waits for an id to show up
+	protected FindViewResult<View> withIds(final List<Integer> ids) {
 		if (ids == null || ids.isEmpty())
 			fail("Tried to search on null or empty id list.");
 		
-		getInstrumentation().waitForIdleSync();
-		
-		FindViewResult<View> result = new FindViewResult<View>();
-		
-		StringBuilder description = new StringBuilder();
-		description.append("with id");
-		if (ids.size() > 1) description.append("s");
-		description.append(" ");
-		for (int i = 0; i < ids.size() - 1; i++) {
-			description.append(ids.get(i));
-			description.append(", ");
-			View v = getView(ids.get(i), View.class, true);
-			if (v != null)
-				result.views.add(v);
-		}
-		
-		description.append(ids.get(ids.size() - 1));
-		View v = getView(ids.get(ids.size() - 1), View.class, true);
-		if (v != null)
-			result.views.add(v);
-		
-		result.description = description.toString();
-		return result;
+		return new FindViewResult<View>(new FindViewResult.Source() {
+			@Override
+			List<View> views() {
+				final ViewSnapshot snapshot = snapshot();
+				final int[] nodes = nodes(snapshot);
+				ArrayList<View> views = new ArrayList<View>(nodes.length);
+				for (int node : nodes)
+					views.add(snapshot.views.get(node));
+				return views;
+			}
+			
+			@Override
+			ViewSnapshot snapshot() {
+				return getSnapshot();
+			}
+			
+			// the view getView would return for each id that's on screen, in the order the ids were given
+			@Override
+			int[] nodes(ViewSnapshot snapshot) {
+				int[] nodes = new int[ids.size()];
+				int count = 0;
+				for (int id : ids) {
+					final int node = snapshot.findViewById(id);
+					if (node >= 0)
+						nodes[count++] = node;
+				}
+				
+				int[] found = new int[count];
+				System.arraycopy(nodes, 0, found, 0, count);
+				return found;
+			}
+			
+			@Override
+			String describe() {
+				StringBuilder description = new StringBuilder();
+				description.append("with id");
+				if (ids.size() > 1) description.append("s");
+				description.append(" ");
+				for (int i = 0; i < ids.size(); i++) {
+					if (i > 0)
+						description.append(", ");
+					description.append(ids.get(i));
+				}
+				return description.toString();
+			}
+		}, m_Stats);
 	}
 	
 	protected FindViewResult<TextView> exactText(CharSequence text, boolean includeHint) {
 		assertNotNull("Tried to search on null exact text.", text);
 		
-		return matchesRegex(String.format("\\A%s\\Z", Pattern.quote(text.toString())), includeHint);
+		return literalText(LiteralText.EXACT, text.toString(), includeHint);
 	}
 	
 	protected FindViewResult<TextView> exactText(CharSequence text) {
 		return exactText(text, false);
 	}
 	
+	/**
+	 * The same search as {@link #exactText}: this has always matched whole texts only, and waitForText and the text
+	 * assertions rely on that. Use {@link #containsSubstring} to find text anywhere within a view's.
+	 */
 	protected FindViewResult<TextView> containsText(CharSequence text, boolean includeHint) {
-		assertNotNull("Tried to search on null text.", text);
-		
-		return matchesRegex(Pattern.quote(text.toString()), includeHint);
+		return exactText(text, includeHint);
 	}
 	
 	protected FindViewResult<TextView> containsText(CharSequence text) {
 		return containsText(text, false);
 	}
 	
+	/** TextViews with substring anywhere in their text (or hint, if includeHint). */
+	protected FindViewResult<TextView> containsSubstring(CharSequence substring, boolean includeHint) {
+		assertNotNull("Tried to search on null substring.", substring);
+		
+		return literalText(LiteralText.CONTAINS, substring.toString(), includeHint);
+	}
+	
+	protected FindViewResult<TextView> containsSubstring(CharSequence substring) {
+		return containsSubstring(substring, false);
+	}
+	
+	protected FindViewResult<TextView> startsWithText(CharSequence text, boolean includeHint) {
+		assertNotNull("Tried to search on null text prefix.", text);
+		
+		return literalText(LiteralText.PREFIX, text.toString(), includeHint);
+	}
+	
+	protected FindViewResult<TextView> startsWithText(CharSequence text) {
+		return startsWithText(text, false);
+	}
+	
+	private FindViewResult<TextView> literalText(final LiteralText mode, final String literal, final boolean includeHint) {
+		FindViewResult<TextView> result = isTextView(new FindViewResult<View>(new FindViewResult.Source() {
+			@Override
+			List<View> views() {
+				final ViewSnapshot snapshot = getSnapshot();
+				final int[] nodes = nodes(snapshot);
+				if (nodes == null)
+					return snapshot.views;
+				
+				ArrayList<View> views = new ArrayList<View>(nodes.length);
+				for (int node : nodes)
+					views.add(snapshot.views.get(node));
+				return views;
+			}
+			
+			@Override
+			ViewSnapshot snapshot() {
+				return getSnapshot();
+			}
+			
+			// only narrows the candidates; the filter below still checks each one
+			@Override
+			int[] nodes(ViewSnapshot snapshot) {
+				return m_TextIndexEnabled ? snapshot.nodes.findText(mode, literal, includeHint) : null;
+			}
+			
+			@Override
+			String describe() {
+				return "views";
+			}
+		}, m_Stats));
+		
+		result.filter(new Predicate<TextView>() {
+			@Override
+			boolean test(TextView specimen) {
+				return (specimen.getText() != null && mode.matches(specimen.getText(), literal)) ||
+					   (includeHint && specimen.getHint() != null && mode.matches(specimen.getHint(), literal));
+			}
+		}, NodeStage.literalText(mode, literal, includeHint));
+		
+		return result;
+	}
+	
 	protected FindViewResult<TextView> matchesRegex(final CharSequence regex, final boolean includeHint) {
 		assertNotNull("Tried to search on null regex.", regex);
 		final Pattern p = Pattern.compile(regex.toString());
 		
 		FindViewResult<TextView> result = isTextView(all());
 		
-		result.description = String.format("%s that match%s '%s'", result.description, includeHint ? " with hint" : "", regex);
 		result.filter(new Predicate<TextView>() { 
 			@Override
 			boolean test(TextView specimen) {
 				return (specimen.getText() != null && p.matcher(specimen.getText()).matches()) ||
 					   (includeHint && specimen.getHint() != null && p.matcher(specimen.getHint()).matches());
 			} 
-		});
+		}, NodeStage.matchesRegex(p, includeHint));
 		
 		return result;
 	}
@@ -816,9 +1584,8 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 	
 	
 	protected <T extends View, R extends View> FindViewResult<R> isType(FindViewResult<T> result, final Class<R> type) {
-		result.description = String.format("%s that are %ss", result.description, type.getSimpleName());
-		
-		result.filter(new Predicate<T>() { boolean test(T specimen) { return type.isAssignableFrom(specimen.getClass()); } });
+		result.filter(new Predicate<T>() { boolean test(T specimen) { return type.isAssignableFrom(specimen.getClass()); } },
+				NodeStage.isA(type.getName()));
 		
 		return FindViewResult.cast(result, type);
 	}
@@ -830,6 +1597,16 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		if (front == back)
 			return true; // if you are yourself, we'll say yes you're in front of yourself too
 		
+		final ViewSnapshot snapshot = getLastSnapshot();
+		final int frontIndex = snapshot.indexOf(front), backIndex = snapshot.indexOf(back);
+		if (frontIndex >= 0 && backIndex >= 0)
+			return snapshot.nodes.isInFrontOf(frontIndex, backIndex);
+		
+		return isInFrontOfByAncestry(front, back);
+	}
+	
+	// for views that aren't part of the current snapshot
+	private boolean isInFrontOfByAncestry(View front, View back) {
 		if (front.getParent() == back)
 			return true;
 		
@@ -851,12 +1628,12 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 			}
 		}
 		
+		if (commonParent == null)
+			return isInFrontOfByWindow(front, back); // views are not in the same tree
+		
 		if (lastUniqueBackAncestor == null)
 			return true; // front is a descendant (really, is a child - should have gotten caught above) of back
 		
-		if (commonParent == null)
-			return false; // views are not in the same tree
-		
 		for (lastUniqueFrontAncestor = (ViewParent)front; 
 			 lastUniqueFrontAncestor != null && lastUniqueFrontAncestor.getParent() != commonParent;
 			 lastUniqueFrontAncestor = lastUniqueFrontAncestor.getParent())
@@ -878,46 +1655,95 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		throw new RuntimeException("Found a common parent, but neither unique ancestor was a child of it.");
 	}
 	
+	// as in a snapshot, the window whose root comes first (the topmost) is in front; a detached view is in front of nothing
+	private boolean isInFrontOfByWindow(View front, View back) {
+		final List<View> roots = getTopWindowRoots();
+		final int frontWindow = roots.indexOf(rootOf(front)), backWindow = roots.indexOf(rootOf(back));
+		return frontWindow >= 0 && backWindow >= 0 && frontWindow < backWindow;
+	}
+	
+	private static View rootOf(View view) {
+		View root = view;
+		while (root.getParent() instanceof View)
+			root = (View)root.getParent();
+		return root;
+	}
+	
+	private static abstract class RectTest {
+		abstract boolean test(RectTable a, int ai, RectTable b, int bi);
+	}
+	
 	private class RectPredicate<T extends View, R extends View> extends TwoParamPredicate<T, R> {
-		private TwoParamPredicate<Rect, Rect> m_Test;
+		private RectTest m_Test;
 		
-		public RectPredicate(TwoParamPredicate<Rect, Rect> test) {
+		public RectPredicate(RectTest test) {
 			m_Test = test;
 		}
 		
 		@Override
 		boolean test(T a, R b) {
-			int xy[] = new int[2];
-			a.getLocationOnScreen(xy);
-			Rect ar = new Rect(xy[0], xy[1], a.getWidth() + xy[0], a.getHeight() + xy[1]);
-			b.getLocationOnScreen(xy);
-			Rect br = new Rect(xy[0], xy[1], b.getWidth() + xy[0], b.getHeight() + xy[1]);
+			final ViewSnapshot snapshot = getLastSnapshot();
+			final RectTable rects = snapshot.nodes.rects;
+			
+			RectTable ar = rects, br = rects;
+			int ai = snapshot.indexOf(a), bi = snapshot.indexOf(b);
+			
+			// views from outside the walk (e.g. found by id in another window) have to be measured on the spot
+			if (ai < 0) {
+				ar = ViewSnapshot.measure(Collections.singletonList(a));
+				ai = 0;
+			}
+			if (bi < 0) {
+				br = ViewSnapshot.measure(Collections.singletonList(b));
+				bi = 0;
+			}
 			
-			return m_Test.test(ar, br);
+			return m_Test.test(ar, ai, br, bi);
 		}
 	}
 	
-	private <T extends View, R extends View> FindViewResult<R> coveredBy_internal(CombinationMatch<T> covers, FindViewResult<R> result, final boolean over) {
-		String desc;
-		if (over)
-			desc = "cover";
-		else
-			desc = "are covered by";
-		result.description = String.format("%s that %s %s", result.description, desc, covers.getDescription());
-		
-		TwoParamPredicate<T, R> test = new TwoParamPredicate<T, R>() {
-			private RectPredicate<T, R> m_Test = new RectPredicate<T, R>(new TwoParamPredicate<Rect, Rect>() { @Override boolean test(Rect a, Rect b) { return Rect.intersects(a, b); } });
+	private <T extends View, R extends View> FindViewResult<R> coveredBy_internal(final CombinationMatch<T> covers, FindViewResult<R> result, final boolean over) {
+		final TwoParamPredicate<T, R> test = new TwoParamPredicate<T, R>() {
+			private RectPredicate<T, R> m_Test = new RectPredicate<T, R>(new RectTest() { @Override boolean test(RectTable a, int ai, RectTable b, int bi) { return RectTable.intersects(a, ai, b, bi); } });
 			@Override
 			boolean test(T a, R b) {
 				return (a.getVisibility() == View.VISIBLE &&
 						b.getVisibility() == View.VISIBLE &&
 						m_Test.test(a, b) &&
-						(over && isInFrontOf(a, b)) ||
-						(!over && isInFrontOf(b, a)));
+						((over && isInFrontOf(a, b)) ||
+						 (!over && isInFrontOf(b, a))));
 			}
 		};
 		
-		result.filter(covers, test);
+		result.filter(new Predicate<R>() {
+			private ViewSnapshot m_Snapshot;
+			private boolean m_UseGrid;
+			
+			@Override
+			boolean test(R specimen) {
+				final ViewSnapshot snapshot = getLastSnapshot();
+				if (snapshot != m_Snapshot) {
+					m_Snapshot = snapshot;
+					final NodeCombination resolved = covers.resolve(snapshot);
+					m_UseGrid = resolved != null && resolved.prefersOverlapGrid(snapshot.nodes);
+				}
+				
+				final int specimenNode = snapshot.indexOf(specimen);
+				if (!m_UseGrid || specimenNode < 0)
+					return covers.matches(test, specimen);
+				
+				// only views that actually intersect the specimen can cover it, so only they need the z-order test
+				final List<View> overlapping = new ArrayList<View>();
+				snapshot.nodes.visitOverlapping(specimenNode, new OverlapGrid.Visitor() {
+					@Override
+					public void visit(int item) {
+						overlapping.add(snapshot.views.get(item));
+					}
+				});
+				
+				return covers.matchesAmong(test, specimen, overlapping);
+			}
+		}, NodeStage.covering(result.nodesOf(covers), over));
 		
 		return result;
 	}
@@ -931,68 +1757,113 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 	}
 	
 	protected <T extends View, R extends View> FindViewResult<R> toLeftOf(CombinationMatch<T> anchor, FindViewResult<R> result) {
-		result.description = String.format("%s to the left of %s", result.description, anchor.getDescription());
-		
-		TwoParamPredicate<Rect, Rect> test = new TwoParamPredicate<Rect, Rect>() { @Override boolean test(Rect a, Rect b) { return a.right <= b.left; } };
+		RectTest test = new RectTest() { @Override boolean test(RectTable a, int ai, RectTable b, int bi) { return a.right[ai] <= b.left[bi]; } };
 		
-		result.filter(anchor, new RectPredicate<T, R>(test));
+		result.filter(anchor, new RectPredicate<T, R>(test), NodeStage.toLeftOf(result.nodesOf(anchor)));
 		
 		return result;
 	}
 	
 	protected <T extends View, R extends View> FindViewResult<R> toRightOf(CombinationMatch<T> anchor, FindViewResult<R> result) {
-		result.description = String.format("%s to the right of %s", result.description, anchor.getDescription());
+		RectTest test = new RectTest() { @Override boolean test(RectTable a, int ai, RectTable b, int bi) { return a.left[ai] >= b.right[bi]; } };
 		
-		TwoParamPredicate<Rect, Rect> test = new TwoParamPredicate<Rect, Rect>() { @Override boolean test(Rect a, Rect b) { return a.left >= b.right; } };
-		
-		result.filter(anchor, new RectPredicate<T, R>(test));
+		result.filter(anchor, new RectPredicate<T, R>(test), NodeStage.toRightOf(result.nodesOf(anchor)));
 		
 		return result;
 	}
 	
 	protected <T extends View, R extends View> FindViewResult<R> above(CombinationMatch<T> anchor, FindViewResult<R> result) {
-		result.description = String.format("%s above %s", result.description, anchor.getDescription());
-		
-		TwoParamPredicate<Rect, Rect> test = new TwoParamPredicate<Rect, Rect>() { @Override boolean test(Rect a, Rect b) { return a.bottom <= b.top; } };
+		RectTest test = new RectTest() { @Override boolean test(RectTable a, int ai, RectTable b, int bi) { return a.bottom[ai] <= b.top[bi]; } };
 		
-		result.filter(anchor, new RectPredicate<T, R>(test));
+		result.filter(anchor, new RectPredicate<T, R>(test), NodeStage.above(result.nodesOf(anchor)));
 		
 		return result;
 	}
 	
 	protected <T extends View, R extends View> FindViewResult<R> below(CombinationMatch<T> anchor, FindViewResult<R> result) {
-		result.description = String.format("%s below %s", result.description, anchor.getDescription());
-		
-		TwoParamPredicate<Rect, Rect> test = new TwoParamPredicate<Rect, Rect>() { @Override boolean test(Rect a, Rect b) { return a.top >= b.bottom; } };
+		RectTest test = new RectTest() { @Override boolean test(RectTable a, int ai, RectTable b, int bi) { return a.top[ai] >= b.bottom[bi]; } };
 		
-		result.filter(anchor, new RectPredicate<T, R>(test));
+		result.filter(anchor, new RectPredicate<T, R>(test), NodeStage.below(result.nodesOf(anchor)));
 		
 		return result;
 	}
 	
 	// combination matching
-	private static class CombinationMatch<T> {
+	private static class CombinationMatch<T extends View> {
+		private FindViewResult<T> m_Source;
 		private List<T> m_Potentials;
-		private String m_Description;
+		private IdentityHashMap<T, Boolean> m_PotentialSet;
+		private boolean m_MatchAll;
 		private int m_MinMatches = 0;
 		private int m_MaxMatches = Integer.MAX_VALUE;
 		
-		public CombinationMatch(List<T> potentials, int min, int max, String description) {
-			if (potentials.size() == 0)
-				throw new IllegalArgumentException("No potential matches.");
-			if (min < 1)
-				throw new IllegalArgumentException("Must match at least one potential.");
-			if (max < min)
-				throw new IllegalArgumentException("Maximum matches must be at least the number of minimum matches.");
-			m_Potentials = potentials;
+		// the potentials are only searched for the first time they're needed, so the limits are checked then too
+		public CombinationMatch(FindViewResult<T> source, boolean matchAll, int min, int max) {
+			m_Source = source;
+			m_MatchAll = matchAll;
 			m_MinMatches = min;
 			m_MaxMatches = max;
-			m_Description = description;
+		}
+		
+		List<T> getPotentials() {
+			if (m_Potentials == null) {
+				List<T> potentials = m_Source.getViews();
+				if (potentials.size() == 0)
+					throw new IllegalArgumentException("No potential matches.");
+				if (m_MatchAll)
+					m_MinMatches = potentials.size();
+				if (m_MinMatches < 1)
+					throw new IllegalArgumentException("Must match at least one potential.");
+				if (m_MaxMatches < m_MinMatches)
+					throw new IllegalArgumentException("Maximum matches must be at least the number of minimum matches.");
+				m_Potentials = potentials;
+			}
+			return m_Potentials;
+		}
+		
+		private IdentityHashMap<T, Boolean> getPotentialSet() {
+			if (m_PotentialSet == null) {
+				IdentityHashMap<T, Boolean> set = new IdentityHashMap<T, Boolean>();
+				for (T potential : getPotentials())
+					set.put(potential, Boolean.TRUE);
+				m_PotentialSet = set;
+			}
+			return m_PotentialSet;
+		}
+		
+		/** @return the potentials as nodes of snapshot, or null if some of them aren't part of it */
+		NodeCombination resolve(ViewSnapshot snapshot) {
+			final List<T> potentials = getPotentials();
+			final int[] nodes = new int[potentials.size()];
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = snapshot.indexOf(potentials.get(i));
+				if (nodes[i] < 0)
+					return null;
+			}
+			return new NodeCombination(snapshot.nodes, nodes, m_MinMatches, m_MaxMatches);
+		}
+		
+		/**
+		 * Like {@link #matches}, but only tries the potentials among candidates; the caller guarantees the test fails
+		 * for every other potential.
+		 */
+		@SuppressWarnings("unchecked")
+		public <S> boolean matchesAmong(TwoParamPredicate<T, S> test, S specimen, List<? extends View> candidates) {
+			final IdentityHashMap<T, Boolean> potentials = getPotentialSet();
+			int matches = 0;
+			Iterator<? extends View> iter = candidates.iterator();
+			while (iter.hasNext() && matches <= m_MaxMatches) {
+				View candidate = iter.next();
+				if (potentials.containsKey(candidate) && test.test((T)candidate, specimen))
+					matches++;
+			}
+			
+			return (matches >= m_MinMatches && matches <= m_MaxMatches);
 		}
 		
 		public <S> boolean matches(TwoParamPredicate<T, S> test, S specimen) {
 			int matches = 0;
-			Iterator<T> iter = m_Potentials.iterator();
+			Iterator<T> iter = getPotentials().iterator();
 			while (iter.hasNext() && matches <= m_MaxMatches) {
 				if (test.test(iter.next(), specimen))
 					matches++;
@@ -1002,38 +1873,23 @@ public class CSFActivityTestCase<StartingActivity extends Activity> extends Acti
 		}
 		
 		public String getDescription() {
-			StringBuilder sb = new StringBuilder();
-			if (m_MinMatches == m_MaxMatches && m_MinMatches == m_Potentials.size()) {
-				sb.append("all ");
-			}
-			else if (m_MinMatches == 1 && m_MaxMatches == m_Potentials.size()) {
-				sb.append("any ");
-			} else {
-				if (m_MinMatches > 1) {
-					sb.append("at least ");
-					sb.append(m_MinMatches);
-					sb.append(" ");
-				}
-				if (m_MaxMatches < Integer.MAX_VALUE) {
-					if (sb.length() > 0)
-						sb.append(" but ");
-					sb.append("at most ");
-					sb.append(m_MaxMatches);
-					sb.append(" ");
-				}
-			}
-			sb.append("of ");
-			sb.append(m_Description);
-			
-			return sb.toString();
+			// the potentials settle how many all of them is first
+			final int potentials = getPotentials().size();
+			return NodeStage.describeCombination(m_MinMatches, m_MaxMatches, potentials, m_Source.getDescription());
+		}
+		
+		// lets a CombinationMatch be handed straight to a stage's description format
+		@Override
+		public String toString() {
+			return getDescription();
 		}
 	}
 	
 	protected <T extends View> CombinationMatch<T> all(FindViewResult<T> result) {
-		return new CombinationMatch<T>(result.views, result.views.size(), Integer.MAX_VALUE, result.description);
+		return new CombinationMatch<T>(result, true, 1, Integer.MAX_VALUE);
 	}
 	
 	protected <T extends View> CombinationMatch<T> any(FindViewResult<T> result) {
-		return new CombinationMatch<T>(result.views, 1, Integer.MAX_VALUE, result.description);
+		return new CombinationMatch<T>(result, false, 1, Integer.MAX_VALUE);
 	}
 }
@@ -0,0 +1,90 @@
+package com.tophyr.csftests;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import android.app.Activity;
+import android.os.Bundle;
+import android.test.InstrumentationTestRunner;
+import android.test.suitebuilder.TestSuiteBuilder;
+
+/**
+ * An InstrumentationTestRunner that tells the test case about every activity as it's created, on the main thread, and
+ * can run one shard of a suite.
+ *
+ * Below API 14, where activities have no lifecycle callbacks, it's worth naming as the test package's instrumentation
+ * for the first alone: without it, an activity created and replaced (or created and finished) before the main thread
+ * next goes idle is never followed, and so isn't finished when the test ends.
+ *
+ * Given -e shardPlan with a {@link ShardPlan} file on the device and -e shardIndex, and no class or package argument, it
+ * runs only the tests the plan puts in that shard.
+ */
+public class CSFTestRunner extends InstrumentationTestRunner {
+	
+	/** Told about each activity right after its onCreate, on the main thread. */
+	interface CreationListener {
+		void activityCreated(Activity a);
+	}
+	
+	private volatile CreationListener m_CreationListener;
+	private Bundle m_Arguments;
+	
+	void setCreationListener(CreationListener listener) {
+		m_CreationListener = listener;
+	}
+	
+	@Override
+	public void onCreate(Bundle arguments) {
+		// getAllTests is asked for the suite from inside onCreate
+		m_Arguments = arguments;
+		super.onCreate(arguments);
+	}
+	
+	@Override
+	public void callActivityOnCreate(Activity activity, Bundle icicle) {
+		super.callActivityOnCreate(activity, icicle);
+		
+		final CreationListener listener = m_CreationListener;
+		if (listener != null)
+			listener.activityCreated(activity);
+	}
+	
+	@Override
+	public TestSuite getAllTests() {
+		final String planPath = m_Arguments == null ? null : m_Arguments.getString(ShardPlan.PLAN_ARGUMENT);
+		if (planPath == null)
+			return super.getAllTests();
+		
+		final String index = m_Arguments.getString(ShardPlan.INDEX_ARGUMENT);
+		if (index == null)
+			throw new IllegalArgumentException(String.format("Shard plan given without -e %s.", ShardPlan.INDEX_ARGUMENT));
+		
+		final ShardPlan plan;
+		try {
+			plan = ShardPlan.read(new File(planPath));
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read shard plan " + planPath, e);
+		}
+		
+		// every test in the package, as the runner finds them without a suite
+		final TestSuite all = new TestSuiteBuilder(getClass().getName(), getTargetContext().getClassLoader()).includePackages("").build();
+		TestSuite shard = new TestSuite("shard " + index);
+		addShard(all, plan, Integer.parseInt(index), shard);
+		return shard;
+	}
+	
+	private static void addShard(Test test, ShardPlan plan, int index, TestSuite shard) {
+		if (test instanceof TestSuite) {
+			final TestSuite suite = (TestSuite)test;
+			for (int i = 0; i < suite.testCount(); i++)
+				addShard(suite.testAt(i), plan, index, shard);
+		} else if (test instanceof TestCase) {
+			final TestCase testCase = (TestCase)test;
+			if (plan.accepts(index, testCase.getClass().getName(), testCase.getName()))
+				shard.addTest(testCase);
+		}
+	}
+}
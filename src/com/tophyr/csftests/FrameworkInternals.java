@@ -0,0 +1,133 @@
+package com.tophyr.csftests;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import android.app.Activity;
+import android.graphics.Matrix;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * The private framework fields and classes the test case reaches into, resolved once per process.
+ * 
+ * Everything is looked up when the class loads, and whatever the running platform doesn't have is logged then, in one
+ * place, instead of failing on every query. Fields whose owning class is only known from a live object (the window
+ * manager and its view roots differ between platform versions) are resolved on first use and cached per class.
+ */
+final class FrameworkInternals {
+	
+	private static final String TAG = "CSFActivityTestCase";
+	
+	static final Field ACTIVITY_RESUMED;
+	static final Field ACTIVITY_RESULT_CODE;
+	static final Field ACTIVITY_RESULT_DATA;
+	
+	static final Class<?> LOCAL_WINDOW_MANAGER;
+	static final Field LOCAL_WINDOW_MANAGER_PARENT;
+	
+	static final Class<?> OVERFLOW_MENU_BUTTON;
+	static final Class<?> ABS_OVERFLOW_MENU_BUTTON;
+	
+	// public from API 11, but newer than the API this builds against
+	private static final Method VIEW_GET_MATRIX;
+	
+	static final List<String> MISSING;
+	
+	private static final HashMap<Class<?>, HashMap<String, Field>> s_Fields = new HashMap<Class<?>, HashMap<String, Field>>();
+	
+	static {
+		ArrayList<String> missing = new ArrayList<String>();
+		
+		ACTIVITY_RESUMED = field(Activity.class, "mResumed", missing);
+		ACTIVITY_RESULT_CODE = field(Activity.class, "mResultCode", missing);
+		ACTIVITY_RESULT_DATA = field(Activity.class, "mResultData", missing);
+		
+		// these only exist on some platform versions, so there's nothing to report when they're absent
+		LOCAL_WINDOW_MANAGER = type("android.view.Window$LocalWindowManager", null);
+		LOCAL_WINDOW_MANAGER_PARENT = LOCAL_WINDOW_MANAGER == null ? null : 
+				field(LOCAL_WINDOW_MANAGER.getSuperclass(), "mWindowManager", missing);
+		
+		OVERFLOW_MENU_BUTTON = type("com.android.internal.view.menu.ActionMenuPresenter$OverflowMenuButton", null);
+		// and ActionBarSherlock is optional
+		ABS_OVERFLOW_MENU_BUTTON = type("com.actionbarsherlock.internal.view.menu.ActionMenuPresenter$OverflowMenuButton", null);
+		
+		Method getMatrix;
+		try {
+			getMatrix = View.class.getMethod("getMatrix");
+		} catch (NoSuchMethodException e) {
+			getMatrix = null;
+		}
+		VIEW_GET_MATRIX = getMatrix;
+		
+		MISSING = Collections.unmodifiableList(missing);
+		if (!MISSING.isEmpty())
+			Log.w(TAG, "Framework internals unavailable on this platform: " + MISSING);
+	}
+	
+	private FrameworkInternals() {
+	}
+	
+	/** @return v's transform (translation, scale, rotation), or null on platforms older than API 11, which have none */
+	static Matrix getMatrix(View v) {
+		if (VIEW_GET_MATRIX == null)
+			return null;
+		try {
+			return (Matrix)VIEW_GET_MATRIX.invoke(v);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	private static Class<?> type(String name, List<String> missing) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			if (missing != null)
+				missing.add(name);
+			return null;
+		}
+	}
+	
+	private static Field field(Class<?> cls, String name, List<String> missing) {
+		Field f = field(cls, name);
+		if (f == null && missing != null)
+			missing.add(cls.getName() + "." + name);
+		return f;
+	}
+	
+	/** @return the accessible declared field, or null if cls doesn't declare it; either answer is cached */
+	static Field field(Class<?> cls, String name) {
+		synchronized (s_Fields) {
+			HashMap<String, Field> fields = s_Fields.get(cls);
+			if (fields == null) {
+				fields = new HashMap<String, Field>();
+				s_Fields.put(cls, fields);
+			}
+			if (fields.containsKey(name))
+				return fields.get(name);
+			
+			Field f;
+			try {
+				f = cls.getDeclaredField(name);
+				f.setAccessible(true);
+			} catch (SecurityException e) {
+				f = null;
+			} catch (NoSuchFieldException e) {
+				f = null;
+			}
+			
+			if (f == null)
+				Log.w(TAG, "Unable to access " + cls.getName() + "." + name);
+			fields.put(name, f);
+			return f;
+		}
+	}
+}
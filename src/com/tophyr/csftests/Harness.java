@@ -0,0 +1,77 @@
+package com.tophyr.csftests;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.app.Instrumentation.ActivityMonitor;
+
+import com.jayway.android.robotium.solo.Solo;
+
+/**
+ * The activity tracker and Solo, shared by every test run by one instrumentation.
+ * 
+ * A Solo registers an activity monitor and starts a timer thread that only go away when it's finalized (or told to
+ * finish every activity), so building one per test leaves a trail of both across a long run. Instead the first test
+ * sets the harness up, and each test after it only resets it. The Solo is only replaced to bind it to an activity
+ * it didn't see start; see {@link #bindSolo}.
+ */
+final class Harness {
+	
+	private static Harness s_Harness;
+	
+	final Instrumentation instrumentation;
+	final ActivityTracker tracker;
+	Solo solo;
+	
+	private Harness(Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+		if (LifecycleActivityTracker.isSupported())
+			tracker = new LifecycleActivityTracker(instrumentation);
+		else
+			tracker = new CSActivityMonitor(instrumentation);
+		tracker.start();
+		solo = new Solo(instrumentation, null);
+	}
+	
+	/** @return the harness for instrumentation, reset for a new test; one left from another instrumentation is released */
+	static synchronized Harness acquire(Instrumentation instrumentation) {
+		if (s_Harness != null && s_Harness.instrumentation != instrumentation)
+			release();
+		
+		if (s_Harness == null)
+			s_Harness = new Harness(instrumentation);
+		else
+			s_Harness.tracker.reset();
+		return s_Harness;
+	}
+	
+	static synchronized void release() {
+		if (s_Harness == null)
+			return;
+		
+		s_Harness.tracker.stop();
+		// the only public way to stop robotium's timer; tests have finished their activities by now
+		s_Harness.solo.finishOpenedActivities();
+		s_Harness.instrumentation.removeMonitor(s_Harness.solo.getActivityMonitor());
+		s_Harness = null;
+		NodeQuery.shutdown();
+	}
+	
+	/**
+	 * Makes Solo treat a as the current activity. The shared Solo has usually seen a start, and everything after it
+	 * finish, so a is current already. Otherwise, as when the harness was set up after a started, a Solo is started on
+	 * a, which has it as its current activity from the moment it's built.
+	 */
+	void bindSolo(Activity a) {
+		final ActivityMonitor monitor = solo.getActivityMonitor();
+		// robotium waits for an activity to turn up when it hasn't seen one, however long that takes
+		if (monitor != null && monitor.getLastActivity() != null && solo.getCurrentActivity() == a)
+			return;
+		
+		final Solo bound = new Solo(instrumentation, a);
+		// only finishing every activity stops the replaced Solo's timer, so that stays, ticking over a monitor that
+		// no longer hears of anything
+		if (monitor != null)
+			instrumentation.removeMonitor(monitor);
+		solo = bound;
+	}
+}
@@ -0,0 +1,164 @@
+package com.tophyr.csftests;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where a test's time goes: call counts and latency histograms per helper family, plus how much searching the finder
+ * did. Timings are inclusive, so an assert that waits shows up under both, and only come from the test thread.
+ */
+final class HelperStats implements NodeQuery.Listener {
+	
+	enum Family {
+		WAIT, ASSERT, FIND, CLICK, ENTER_TEXT,
+		// what the helpers spend their time on
+		IDLE_SYNC, CAPTURE, EVALUATE, SLEEP;
+		
+		final String key = name().toLowerCase(Locale.US);
+	}
+	
+	// bucket i counts calls that took less than 2^i microseconds (and at least 2^(i-1)); the last takes everything longer
+	static final int BUCKETS = 32;
+	
+	private final long[] m_Count = new long[Family.values().length];
+	private final long[] m_TotalNanos = new long[Family.values().length];
+	private final long[] m_MaxNanos = new long[Family.values().length];
+	private final long[][] m_Histogram = new long[Family.values().length][BUCKETS];
+	
+	private final AtomicLong m_Queries = new AtomicLong();
+	private final AtomicLong m_ViewsVisited = new AtomicLong();
+	private final AtomicLong m_PredicateTests = new AtomicLong();
+	private long m_Snapshots, m_NodesCaptured, m_NodesUnchanged;
+	private long m_Tests, m_TestNanos;
+	
+	/** A helper's body, for {@link #time}. */
+	abstract static class Timed<R> {
+		abstract R run();
+	}
+	
+	/** Runs body and records how long it took under family, however it ends. Every helper is timed through here. */
+	<R> R time(Family family, Timed<R> body) {
+		final long start = start();
+		try {
+			return body.run();
+		} finally {
+			end(family, start);
+		}
+	}
+	
+	static long start() {
+		return System.nanoTime();
+	}
+	
+	void end(Family family, long start) {
+		record(family, System.nanoTime() - start);
+	}
+	
+	synchronized void record(Family family, long nanos) {
+		final int f = family.ordinal();
+		m_Count[f]++;
+		m_TotalNanos[f] += nanos;
+		m_MaxNanos[f] = Math.max(m_MaxNanos[f], nanos);
+		m_Histogram[f][bucket(nanos)]++;
+	}
+	
+	private static int bucket(long nanos) {
+		final long micros = nanos / 1000;
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+	
+	/** @param unchanged how many of the nodes were just as the last snapshot had them */
+	synchronized void captured(int nodes, int unchanged) {
+		m_Snapshots++;
+		m_NodesCaptured += nodes;
+		m_NodesUnchanged += unchanged;
+	}
+	
+	synchronized void testFinished(long nanos) {
+		m_Tests++;
+		m_TestNanos += nanos;
+	}
+	
+	void queried() {
+		m_Queries.incrementAndGet();
+	}
+	
+	@Override
+	public void searched(int visited, long tests) {
+		m_ViewsVisited.addAndGet(visited);
+		m_PredicateTests.addAndGet(tests);
+	}
+	
+	synchronized void addTo(HelperStats total) {
+		synchronized (total) {
+			for (int f = 0; f < m_Count.length; f++) {
+				total.m_Count[f] += m_Count[f];
+				total.m_TotalNanos[f] += m_TotalNanos[f];
+				total.m_MaxNanos[f] = Math.max(total.m_MaxNanos[f], m_MaxNanos[f]);
+				for (int b = 0; b < BUCKETS; b++)
+					total.m_Histogram[f][b] += m_Histogram[f][b];
+			}
+			total.m_Snapshots += m_Snapshots;
+			total.m_NodesCaptured += m_NodesCaptured;
+			total.m_NodesUnchanged += m_NodesUnchanged;
+			total.m_Tests += m_Tests;
+			total.m_TestNanos += m_TestNanos;
+		}
+		total.m_Queries.addAndGet(m_Queries.get());
+		total.m_ViewsVisited.addAndGet(m_ViewsVisited.get());
+		total.m_PredicateTests.addAndGet(m_PredicateTests.get());
+	}
+	
+	/**
+	 * One line of JSON: {"name":..., "families":{"wait":{"count":..., "totalMs":..., "maxMs":..., "histogramUs":[...]},
+	 * ...}, "counters":{...}}; families never called are left out.
+	 */
+	synchronized String toJson(String name) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"name\":\"").append(escape(name)).append("\",\"families\":{");
+		
+		boolean first = true;
+		for (Family family : Family.values()) {
+			final int f = family.ordinal();
+			if (m_Count[f] == 0)
+				continue;
+			if (!first)
+				json.append(',');
+			first = false;
+			
+			json.append('"').append(family.key).append("\":{\"count\":").append(m_Count[f]);
+			json.append(",\"totalMs\":").append(millis(m_TotalNanos[f]));
+			json.append(",\"maxMs\":").append(millis(m_MaxNanos[f]));
+			json.append(",\"histogramUs\":[");
+			int last = BUCKETS - 1;
+			while (last > 0 && m_Histogram[f][last] == 0)
+				last--;
+			for (int b = 0; b <= last; b++) {
+				if (b > 0)
+					json.append(',');
+				json.append(m_Histogram[f][b]);
+			}
+			json.append("]}");
+		}
+		
+		json.append("},\"counters\":{");
+		json.append("\"tests\":").append(m_Tests);
+		json.append(",\"durationMs\":").append(m_TestNanos / 1000000);
+		json.append(",\"snapshots\":").append(m_Snapshots);
+		json.append(",\"nodesCaptured\":").append(m_NodesCaptured);
+		json.append(",\"nodesUnchanged\":").append(m_NodesUnchanged);
+		json.append(",\"queries\":").append(m_Queries.get());
+		json.append(",\"viewsVisited\":").append(m_ViewsVisited.get());
+		json.append(",\"predicateTests\":").append(m_PredicateTests.get());
+		json.append("}}");
+		return json.toString();
+	}
+	
+	private static String millis(long nanos) {
+		return String.format(Locale.US, "%.3f", nanos / 1e6);
+	}
+	
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,339 @@
+package com.tophyr.csftests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An immutable copy of everything the finder needs to know about a view hierarchy, with no references to the views
+ * themselves, so it can be searched from any thread (or any JVM).
+ *
+ * Nodes are numbered in pre-order: a node's descendants directly follow it, and children come in drawing order. Every
+ * per-node property lives in its own array indexed by that number.
+ */
+final class HierarchyNodes {
+	
+	/** Same value as android.view.View.VISIBLE. */
+	static final int VISIBLE = 0;
+	
+	/** Same value as android.view.View.NO_ID. */
+	static final int NO_ID = -1;
+	
+	// text indexes inherited with more stale nodes than this (or than a 32nd of the nodes) are rebuilt instead
+	private static final int MAX_STALE_TEXTS = 64;
+	private static final int[] NONE = new int[0];
+	
+	/** A view class, with the names of everything it can be assigned to. */
+	static final class NodeClass {
+		final String name;
+		final String[] supertypes;
+		
+		NodeClass(String name, String[] supertypes) {
+			this.name = name;
+			this.supertypes = supertypes;
+		}
+		
+		boolean isA(String typeName) {
+			if (name.equals(typeName))
+				return true;
+			for (String supertype : supertypes)
+				if (supertype.equals(typeName))
+					return true;
+			return false;
+		}
+	}
+	
+	final int size;
+	final NodeClass[] classes;
+	final int[] classOf;
+	final int[] id;
+	final String[] text;
+	final String[] hint;
+	final int[] visibility;
+	final int[] parent;
+	final RectTable rects;
+	
+	// node i's descendants are exactly nodes i + 1 up to (but not including) m_SubtreeEnd[i]
+	private final int[] m_SubtreeEnd;
+	private final int[] m_Root;
+	
+	// built the first time a query needs them
+	private OverlapGrid m_OverlapGrid;
+	private TextIndex m_TextIndex, m_HintIndex;
+	// nodes whose text or hint isn't what the text indexes were built from; they're checked one by one
+	private int[] m_StaleTexts = NONE;
+	private IdIndex m_IdIndex;
+	private int[] m_ClassCounts;
+	
+	private HierarchyNodes(Builder b) {
+		size = b.m_Size;
+		classes = b.m_Classes.toArray(new NodeClass[b.m_Classes.size()]);
+		classOf = trim(b.m_ClassOf, size);
+		id = trim(b.m_Id, size);
+		visibility = trim(b.m_Visibility, size);
+		parent = trim(b.m_Parent, size);
+		text = new String[size];
+		System.arraycopy(b.m_Text, 0, text, 0, size);
+		hint = new String[size];
+		System.arraycopy(b.m_Hint, 0, hint, 0, size);
+		
+		rects = new RectTable(size);
+		for (int i = 0; i < size; i++)
+			rects.set(i, b.m_Left[i], b.m_Top[i], b.m_Right[i], b.m_Bottom[i]);
+		
+		// in pre-order every node comes after its parent, so one backwards pass settles every subtree's extent
+		m_SubtreeEnd = new int[size];
+		for (int i = size - 1; i >= 0; i--) {
+			m_SubtreeEnd[i] = Math.max(m_SubtreeEnd[i], i + 1);
+			if (parent[i] >= 0)
+				m_SubtreeEnd[parent[i]] = Math.max(m_SubtreeEnd[parent[i]], m_SubtreeEnd[i]);
+		}
+		m_Root = new int[size];
+		for (int i = 0; i < size; i++)
+			m_Root[i] = parent[i] < 0 ? i : m_Root[parent[i]];
+	}
+	
+	private static int[] trim(int[] a, int size) {
+		int[] trimmed = new int[size];
+		System.arraycopy(a, 0, trimmed, 0, size);
+		return trimmed;
+	}
+	
+	/** Collects nodes one at a time, in pre-order. */
+	static final class Builder {
+		private final ArrayList<NodeClass> m_Classes = new ArrayList<NodeClass>();
+		private final HashMap<String, Integer> m_ClassIndices = new HashMap<String, Integer>();
+		
+		private int m_Size;
+		private int[] m_ClassOf = new int[64], m_Id = new int[64], m_Visibility = new int[64], m_Parent = new int[64];
+		private int[] m_Left = new int[64], m_Top = new int[64], m_Right = new int[64], m_Bottom = new int[64];
+		private String[] m_Text = new String[64], m_Hint = new String[64];
+		
+		int addClass(String name, String[] supertypes) {
+			Integer index = m_ClassIndices.get(name);
+			if (index == null) {
+				index = m_Classes.size();
+				m_Classes.add(new NodeClass(name, supertypes));
+				m_ClassIndices.put(name, index);
+			}
+			return index;
+		}
+		
+		/** @return the new node's number */
+		int add(int parent, int classIndex, int id, String text, String hint, int visibility, int left, int top, int right, int bottom) {
+			if (parent >= m_Size)
+				throw new IllegalArgumentException("Nodes must be added after their parents.");
+			if (classIndex < 0 || classIndex >= m_Classes.size())
+				throw new IllegalArgumentException("Unknown class index " + classIndex);
+			
+			if (m_Size == m_ClassOf.length)
+				grow();
+			
+			final int node = m_Size++;
+			m_Parent[node] = parent;
+			m_ClassOf[node] = classIndex;
+			m_Id[node] = id;
+			m_Text[node] = text;
+			m_Hint[node] = hint;
+			m_Visibility[node] = visibility;
+			m_Left[node] = left;
+			m_Top[node] = top;
+			m_Right[node] = right;
+			m_Bottom[node] = bottom;
+			return node;
+		}
+		
+		private void grow() {
+			final int capacity = m_ClassOf.length * 2;
+			m_ClassOf = grow(m_ClassOf, capacity);
+			m_Id = grow(m_Id, capacity);
+			m_Visibility = grow(m_Visibility, capacity);
+			m_Parent = grow(m_Parent, capacity);
+			m_Left = grow(m_Left, capacity);
+			m_Top = grow(m_Top, capacity);
+			m_Right = grow(m_Right, capacity);
+			m_Bottom = grow(m_Bottom, capacity);
+			
+			String[] text = new String[capacity], hint = new String[capacity];
+			System.arraycopy(m_Text, 0, text, 0, m_Size);
+			System.arraycopy(m_Hint, 0, hint, 0, m_Size);
+			m_Text = text;
+			m_Hint = hint;
+		}
+		
+		private static int[] grow(int[] a, int capacity) {
+			int[] bigger = new int[capacity];
+			System.arraycopy(a, 0, bigger, 0, a.length);
+			return bigger;
+		}
+		
+		int size() {
+			return m_Size;
+		}
+		
+		HierarchyNodes build() {
+			return new HierarchyNodes(this);
+		}
+	}
+	
+	NodeClass classOf(int node) {
+		return classes[classOf[node]];
+	}
+	
+	boolean isAncestor(int ancestor, int descendant) {
+		return ancestor < descendant && descendant < m_SubtreeEnd[ancestor];
+	}
+	
+	int subtreeEnd(int node) {
+		return m_SubtreeEnd[node];
+	}
+	
+	/**
+	 * Children are drawn in order, after their parent, so within one window a node is in front of another exactly when
+	 * it comes later in the pre-order walk. Window roots are walked topmost first, so across windows it's the other way
+	 * around: a node in an earlier window (a dialog, say) is in front of everything in the later ones.
+	 */
+	boolean isInFrontOf(int front, int back) {
+		final int frontRoot = m_Root[front], backRoot = m_Root[back];
+		return frontRoot == backRoot ? front >= back : frontRoot < backRoot;
+	}
+	
+	/** Calls visitor with every node whose screen rect intersects node's, node included. */
+	void visitOverlapping(int node, OverlapGrid.Visitor visitor) {
+		getOverlapGrid().query(rects.left[node], rects.top[node], rects.right[node], rects.bottom[node], visitor);
+	}
+	
+	synchronized OverlapGrid getOverlapGrid() {
+		if (m_OverlapGrid == null)
+			m_OverlapGrid = new OverlapGrid(rects);
+		return m_OverlapGrid;
+	}
+	
+	/** @return how many nodes there are of each class, indexed like classes */
+	synchronized int[] classCounts() {
+		if (m_ClassCounts == null) {
+			int[] counts = new int[classes.length];
+			for (int i = 0; i < size; i++)
+				counts[classOf[i]]++;
+			m_ClassCounts = counts;
+		}
+		return m_ClassCounts;
+	}
+	
+	/**
+	 * Takes over whichever of from's indexes still hold for these nodes, which must be numbered just as from's are: the
+	 * id index if no id changed, the overlap grid if no rect did, and the text indexes as long as only a few texts or
+	 * hints did.
+	 * 
+	 * @param changedTexts the nodes whose text or hint differs from from's, in ascending order
+	 */
+	void inheritIndexes(HierarchyNodes from, boolean ids, int[] changedTexts, boolean rects) {
+		if (from.size != size)
+			throw new IllegalArgumentException("Indexes can only be inherited from nodes numbered the same way.");
+		
+		synchronized (from) {
+			synchronized (this) {
+				if (ids)
+					m_IdIndex = from.m_IdIndex;
+				// the same views in the same places, so the same classes
+				if (classes.length == from.classes.length)
+					m_ClassCounts = from.m_ClassCounts;
+				if (rects)
+					m_OverlapGrid = from.m_OverlapGrid;
+				
+				if (from.m_TextIndex != null) {
+					final int[] stale = union(from.m_StaleTexts, changedTexts);
+					if (stale.length <= Math.max(MAX_STALE_TEXTS, size / 32)) {
+						m_TextIndex = from.m_TextIndex;
+						m_HintIndex = from.m_HintIndex;
+						m_StaleTexts = stale;
+					}
+				}
+			}
+		}
+	}
+	
+	// both ascending
+	private static int[] union(int[] a, int[] b) {
+		int[] merged = new int[a.length + b.length];
+		int count = 0, i = 0, j = 0;
+		while (i < a.length || j < b.length) {
+			final int next = j >= b.length || (i < a.length && a[i] <= b[j]) ? a[i] : b[j];
+			while (i < a.length && a[i] == next) i++;
+			while (j < b.length && b[j] == next) j++;
+			merged[count++] = next;
+		}
+		
+		int[] result = new int[count];
+		System.arraycopy(merged, 0, result, 0, count);
+		return result;
+	}
+	
+	/** @return the nodes with id, in walk order */
+	int[] findId(int id) {
+		final IdIndex index;
+		synchronized (this) {
+			if (m_IdIndex == null)
+				m_IdIndex = new IdIndex(this.id, NO_ID);
+			index = m_IdIndex;
+		}
+		return index.find(id);
+	}
+	
+	/**
+	 * @param window a window's root node, or -1
+	 * @return the first node with id inside window, otherwise the first anywhere, or -1 if there isn't one
+	 */
+	int findId(int id, int window) {
+		final int[] matches = findId(id);
+		if (matches.length == 0)
+			return -1;
+		
+		if (window >= 0) {
+			for (int node : matches)
+				if (node == window || isAncestor(window, node))
+					return node;
+		}
+		return matches[0];
+	}
+	
+	/** @return the nodes whose text (or hint, if asked) matches, in walk order */
+	int[] findText(LiteralText mode, String literal, boolean includeHint) {
+		final int[] byText, byHint, stale;
+		synchronized (this) {
+			if (m_TextIndex == null) {
+				m_TextIndex = new TextIndex(text);
+				m_HintIndex = new TextIndex(hint);
+			}
+			byText = m_TextIndex.find(mode, literal);
+			byHint = includeHint ? m_HintIndex.find(mode, literal) : NONE;
+			stale = m_StaleTexts;
+		}
+		
+		// both are in walk order, so merging keeps it
+		final int[] indexed = union(byText, byHint);
+		if (stale.length == 0)
+			return indexed;
+		
+		// the index's answer for stale nodes is out of date, so drop it and check them as they are now
+		int[] stillMatching = new int[stale.length];
+		int count = 0;
+		for (int node : stale) {
+			if ((text[node] != null && mode.matches(text[node], literal)) || (includeHint && hint[node] != null && mode.matches(hint[node], literal)))
+				stillMatching[count++] = node;
+		}
+		int[] fresh = new int[indexed.length];
+		int kept = 0;
+		for (int i = 0, s = 0; i < indexed.length; i++) {
+			while (s < stale.length && stale[s] < indexed[i])
+				s++;
+			if (s >= stale.length || stale[s] != indexed[i])
+				fresh[kept++] = indexed[i];
+		}
+		
+		int[] checked = new int[count];
+		System.arraycopy(stillMatching, 0, checked, 0, count);
+		int[] trimmed = new int[kept];
+		System.arraycopy(fresh, 0, trimmed, 0, kept);
+		return union(trimmed, checked);
+	}
+}
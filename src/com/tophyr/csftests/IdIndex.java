@@ -0,0 +1,80 @@
+package com.tophyr.csftests;
+
+/**
+ * Maps view ids to the nodes that have them, in walk order.
+ *
+ * Ids are looked up in an int-keyed open-addressing table, so nothing is boxed; each id's nodes sit contiguously in one
+ * shared array.
+ */
+final class IdIndex {
+	
+	private static final int[] NONE = new int[0];
+	
+	private final int m_Mask;
+	private final int[] m_Keys;
+	// 0 for an empty slot, otherwise the key's group + 1
+	private final int[] m_Groups;
+	
+	// group g holds m_Nodes[m_Start[g]] up to (but not including) m_Nodes[m_Start[g + 1]]
+	private final int[] m_Start;
+	private final int[] m_Nodes;
+	
+	/** @param ids each node's id; nodes with noId aren't indexed */
+	IdIndex(int[] ids, int noId) {
+		final int count = ids.length;
+		int capacity = 4;
+		while (capacity < count * 2)
+			capacity <<= 1;
+		m_Mask = capacity - 1;
+		m_Keys = new int[capacity];
+		m_Groups = new int[capacity];
+		
+		int groups = 0;
+		final int[] groupOf = new int[count];
+		final int[] start = new int[count + 1];
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == noId) {
+				groupOf[i] = -1;
+				continue;
+			}
+			
+			final int slot = slot(ids[i]);
+			if (m_Groups[slot] == 0) {
+				m_Keys[slot] = ids[i];
+				m_Groups[slot] = ++groups;
+			}
+			groupOf[i] = m_Groups[slot] - 1;
+			start[groupOf[i] + 1]++;
+		}
+		
+		m_Start = new int[groups + 1];
+		for (int g = 0; g < groups; g++)
+			m_Start[g + 1] = m_Start[g] + start[g + 1];
+		
+		m_Nodes = new int[m_Start[groups]];
+		int[] fill = new int[groups];
+		for (int i = 0; i < count; i++)
+			if (groupOf[i] >= 0)
+				m_Nodes[m_Start[groupOf[i]] + fill[groupOf[i]]++] = i;
+	}
+	
+	// the slot holding id, or the empty slot it would go in
+	private int slot(int id) {
+		int hash = id * 0x9E3779B9;
+		int slot = (hash ^ hash >>> 16) & m_Mask;
+		while (m_Groups[slot] != 0 && m_Keys[slot] != id)
+			slot = (slot + 1) & m_Mask;
+		return slot;
+	}
+	
+	/** @return the nodes with id, in walk order */
+	int[] find(int id) {
+		final int group = m_Groups[slot(id)] - 1;
+		if (group < 0)
+			return NONE;
+		
+		int[] nodes = new int[m_Start[group + 1] - m_Start[group]];
+		System.arraycopy(m_Nodes, m_Start[group], nodes, 0, nodes.length);
+		return nodes;
+	}
+}
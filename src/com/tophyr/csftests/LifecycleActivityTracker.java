@@ -0,0 +1,310 @@
+package com.tophyr.csftests;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * An {@link ActivityTracker} fed by the application's activity lifecycle callbacks, so every transition is seen as it
+ * happens on the main thread and waiters are completed right there.
+ * 
+ * The callbacks only exist from API 14 on, and this library targets API 8, so they're registered through a proxy
+ * when the running platform has them; see {@link #isSupported()}.
+ */
+final class LifecycleActivityTracker implements ActivityTracker {
+	
+	/** One lifecycle callback, as it was seen. */
+	static final class Transition {
+		final String activity;
+		final String event;
+		final long uptimeMillis;
+		/** Time since the previous transition of the same activity, or -1 for its first. */
+		final long sincePrevious;
+		
+		Transition(String activity, String event, long uptimeMillis, long sincePrevious) {
+			this.activity = activity;
+			this.event = event;
+			this.uptimeMillis = uptimeMillis;
+			this.sincePrevious = sincePrevious;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s %s at %d (+%dms)", activity, event, uptimeMillis, sincePrevious);
+		}
+	}
+	
+	private static final Class<?> s_CallbacksClass;
+	private static final Method s_Register, s_Unregister;
+	
+	static {
+		Class<?> cls = null;
+		Method register = null, unregister = null;
+		try {
+			cls = Class.forName("android.app.Application$ActivityLifecycleCallbacks");
+			register = Application.class.getMethod("registerActivityLifecycleCallbacks", cls);
+			unregister = Application.class.getMethod("unregisterActivityLifecycleCallbacks", cls);
+		} catch (ClassNotFoundException e) {
+			cls = null;
+		} catch (NoSuchMethodException e) {
+			cls = null;
+		}
+		s_CallbacksClass = cls;
+		s_Register = register;
+		s_Unregister = unregister;
+	}
+	
+	static boolean isSupported() {
+		return s_CallbacksClass != null;
+	}
+	
+	private final Instrumentation m_Instrumentation;
+	private final Object m_Callbacks;
+	private Application m_Application;
+	
+	private volatile WeakReference<Activity> m_ResumedActivity;
+	private volatile boolean m_Resumed;
+	private final Waiters<Class<?>> m_ResumeWaiters;
+	private final Waiters<Activity> m_FinishWaiters;
+	
+	// guarded by itself; written on the main thread, read by tests
+	private final ArrayList<Transition> m_Transitions;
+	private final HashMap<Class<?>, List<Long>> m_ResumeHistory;
+	private final ArrayList<WeakReference<Activity>> m_OpenActivities;
+	
+	LifecycleActivityTracker(Instrumentation instrumentation) {
+		if (!isSupported())
+			throw new IllegalStateException("Activity lifecycle callbacks aren't available on this platform.");
+		
+		m_Instrumentation = instrumentation;
+		m_ResumedActivity = new WeakReference<Activity>(null);
+		m_ResumeWaiters = new Waiters<Class<?>>();
+		m_FinishWaiters = new Waiters<Activity>();
+		m_Transitions = new ArrayList<Transition>();
+		m_ResumeHistory = new HashMap<Class<?>, List<Long>>();
+		m_OpenActivities = new ArrayList<WeakReference<Activity>>();
+		
+		m_Callbacks = Proxy.newProxyInstance(s_CallbacksClass.getClassLoader(), new Class<?>[] { s_CallbacksClass }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getDeclaringClass() == Object.class) {
+					if (method.getName().equals("equals"))
+						return proxy == args[0];
+					if (method.getName().equals("hashCode"))
+						return System.identityHashCode(proxy);
+					return "LifecycleActivityTracker callbacks";
+				}
+				
+				onLifecycleEvent(method.getName(), (Activity)args[0]);
+				return null;
+			}
+		});
+	}
+	
+	@Override
+	public void start() {
+		m_Application = (Application)m_Instrumentation.getTargetContext().getApplicationContext();
+		invoke(s_Register);
+	}
+	
+	@Override
+	public void reset() {
+		m_ResumeWaiters.releaseAll();
+		m_FinishWaiters.releaseAll();
+		synchronized (m_Transitions) {
+			m_Transitions.clear();
+			m_ResumeHistory.clear();
+		}
+	}
+	
+	@Override
+	public void stop() {
+		if (m_Application != null)
+			invoke(s_Unregister);
+		m_Application = null;
+		
+		m_ResumeWaiters.releaseAll();
+		m_FinishWaiters.releaseAll();
+	}
+	
+	private void invoke(Method m) {
+		try {
+			m.invoke(m_Application, m_Callbacks);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	// called on the main thread, with the callback's method name (onActivityResumed, ...)
+	private void onLifecycleEvent(String callback, Activity a) {
+		final long now = SystemClock.uptimeMillis();
+		final String event = callback.startsWith("onActivity") ? callback.substring("onActivity".length()) : callback;
+		record(a, event, now);
+		
+		if (event.equals("Created")) {
+			setOpen(a, true);
+		} else if (event.equals("Resumed")) {
+			resumed(a, now);
+		} else if (event.equals("Paused")) {
+			// the paused activity is still the last resumed one until another resumes
+			if (m_ResumedActivity.get() == a)
+				m_Resumed = false;
+			if (a.isFinishing())
+				m_FinishWaiters.complete(a);
+		} else if (event.equals("Destroyed")) {
+			setOpen(a, false);
+			m_FinishWaiters.complete(a);
+		}
+	}
+	
+	private void resumed(Activity a, long now) {
+		m_ResumedActivity = new WeakReference<Activity>(a);
+		m_Resumed = true;
+		synchronized (m_Transitions) {
+			List<Long> history = m_ResumeHistory.get(a.getClass());
+			if (history == null) {
+				history = new ArrayList<Long>();
+				m_ResumeHistory.put(a.getClass(), history);
+			}
+			history.add(now);
+		}
+		m_ResumeWaiters.complete(a.getClass());
+	}
+	
+	private void setOpen(Activity a, boolean open) {
+		synchronized (m_Transitions) {
+			Iterator<WeakReference<Activity>> iter = m_OpenActivities.iterator();
+			while (iter.hasNext()) {
+				final Activity known = iter.next().get();
+				if (known == null || known == a)
+					iter.remove();
+			}
+			if (open)
+				m_OpenActivities.add(new WeakReference<Activity>(a));
+		}
+	}
+	
+	private void record(Activity a, String event, long now) {
+		final String name = a.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(a));
+		synchronized (m_Transitions) {
+			long sincePrevious = -1;
+			for (int i = m_Transitions.size() - 1; i >= 0; i--) {
+				Transition previous = m_Transitions.get(i);
+				if (previous.activity.equals(name)) {
+					sincePrevious = now - previous.uptimeMillis;
+					break;
+				}
+			}
+			Transition t = new Transition(name, event, now, sincePrevious);
+			m_Transitions.add(t);
+			Log.v("CSFActivityTestCase", t.toString());
+		}
+	}
+	
+	@Override
+	public Activity getLastResumedActivity() {
+		return m_ResumedActivity.get();
+	}
+	
+	@Override
+	public boolean isActivityResumed() {
+		return m_Resumed && m_ResumedActivity.get() != null;
+	}
+	
+	private boolean isResumed(Class<?> cls) {
+		final Activity a = getLastResumedActivity();
+		return a != null && a.getClass() == cls;
+	}
+	
+	@Override
+	public boolean waitForResumedActivity(final Class<?> cls, long timeout) {
+		return m_ResumeWaiters.await(cls, timeout, new Waiters.Condition() {
+			@Override
+			boolean holds() {
+				return isResumed(cls);
+			}
+		});
+	}
+	
+	@Override
+	public boolean waitForFinishedActivity(final Activity a, long timeout) {
+		if (a == null)
+			throw new IllegalArgumentException("Activity may not be null.");
+		
+		return m_FinishWaiters.await(a, timeout, new Waiters.Condition() {
+			@Override
+			boolean holds() {
+				return a.isFinishing();
+			}
+		});
+	}
+	
+	@Override
+	public void adopt(final Activity a) {
+		if (a == null)
+			throw new IllegalArgumentException("Activity may not be null.");
+		
+		setOpen(a, true);
+		// it won't be called back for a resume that has already happened
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				if (!m_Resumed && isResumedNow(a))
+					resumed(a, SystemClock.uptimeMillis());
+			}
+		});
+	}
+	
+	private static boolean isResumedNow(Activity a) {
+		final Field mResumed = FrameworkInternals.ACTIVITY_RESUMED;
+		if (mResumed == null)
+			return !a.isFinishing();
+		try {
+			return mResumed.getBoolean(a);
+		} catch (IllegalAccessException e) {
+			return !a.isFinishing();
+		}
+	}
+	
+	@Override
+	public List<Activity> getOpenActivities() {
+		ArrayList<Activity> open = new ArrayList<Activity>();
+		synchronized (m_Transitions) {
+			for (WeakReference<Activity> ref : m_OpenActivities) {
+				final Activity a = ref.get();
+				if (a != null && !a.isFinishing())
+					open.add(a);
+			}
+		}
+		return open;
+	}
+	
+	List<Transition> getTransitions() {
+		synchronized (m_Transitions) {
+			return Collections.unmodifiableList(new ArrayList<Transition>(m_Transitions));
+		}
+	}
+	
+	List<Long> getResumeHistory(Class<?> cls) {
+		synchronized (m_Transitions) {
+			List<Long> history = m_ResumeHistory.get(cls);
+			return history == null ? Collections.<Long>emptyList() : Collections.unmodifiableList(new ArrayList<Long>(history));
+		}
+	}
+}
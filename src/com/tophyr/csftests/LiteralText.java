@@ -0,0 +1,48 @@
+package com.tophyr.csftests;
+
+/**
+ * Plain-text comparisons against a view's text, without going through the regex engine or copying the text out of
+ * whatever CharSequence (Spannable, Editable, ...) the view holds.
+ */
+enum LiteralText {
+	
+	EXACT("are exactly") {
+		@Override
+		boolean matches(CharSequence text, String literal) {
+			return text.length() == literal.length() && regionMatches(text, 0, literal);
+		}
+	},
+	
+	CONTAINS("contain") {
+		@Override
+		boolean matches(CharSequence text, String literal) {
+			final int last = text.length() - literal.length();
+			for (int start = 0; start <= last; start++)
+				if (regionMatches(text, start, literal))
+					return true;
+			return false;
+		}
+	},
+	
+	PREFIX("start with") {
+		@Override
+		boolean matches(CharSequence text, String literal) {
+			return text.length() >= literal.length() && regionMatches(text, 0, literal);
+		}
+	};
+	
+	final String verb;
+	
+	private LiteralText(String verb) {
+		this.verb = verb;
+	}
+	
+	abstract boolean matches(CharSequence text, String literal);
+	
+	private static boolean regionMatches(CharSequence text, int start, String literal) {
+		for (int i = 0; i < literal.length(); i++)
+			if (text.charAt(start + i) != literal.charAt(i))
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,114 @@
+package com.tophyr.csftests;
+
+import java.util.Arrays;
+
+/**
+ * A set of potential nodes, and how many of them a specimen must pass a {@link NodePairTest} with.
+ */
+final class NodeCombination {
+	
+	/** Supplies the combination for a particular set of nodes. */
+	static abstract class Source {
+		/** @return null if some potential isn't one of these nodes */
+		abstract NodeCombination resolve(HierarchyNodes nodes);
+	}
+	
+	// below this many potentials, testing them all is always cheaper than asking the overlap grid
+	private static final int GRID_MIN_POTENTIALS = 64;
+	
+	final int[] potentials;
+	final int minMatches;
+	final int maxMatches;
+	
+	// indexed by node
+	private final boolean[] m_IsPotential;
+	
+	NodeCombination(HierarchyNodes nodes, int[] potentials, int minMatches, int maxMatches) {
+		this.potentials = potentials;
+		this.minMatches = minMatches;
+		this.maxMatches = maxMatches;
+		
+		m_IsPotential = new boolean[nodes.size];
+		for (int p : potentials)
+			m_IsPotential[p] = true;
+	}
+	
+	boolean matches(NodePairTest test, HierarchyNodes nodes, int specimen) {
+		int matches = 0;
+		for (int i = 0; i < potentials.length && matches <= maxMatches; i++) {
+			if (test.test(nodes, potentials[i], specimen))
+				matches++;
+		}
+		
+		return (matches >= minMatches && matches <= maxMatches);
+	}
+	
+	/** @return the potentials' edge that test compares, sorted, for {@link #matchesSorted} */
+	int[] sortedEdges(NodePairTest.EdgeComparison test, HierarchyNodes nodes) {
+		final int[] edge = test.potentialEdge(nodes.rects);
+		int[] sorted = new int[potentials.length];
+		for (int i = 0; i < potentials.length; i++)
+			sorted[i] = edge[potentials[i]];
+		Arrays.sort(sorted);
+		return sorted;
+	}
+	
+	/**
+	 * Like {@link #matches} for an edge comparison, without trying each potential: the ones that pass are exactly those
+	 * whose edge is on the right side of the specimen's, so for any or all of them it's one comparison with the lowest
+	 * or highest edge, and otherwise a binary search to count them.
+	 * 
+	 * @param sortedEdges from {@link #sortedEdges}, for the same test
+	 */
+	boolean matchesSorted(NodePairTest.EdgeComparison test, int[] sortedEdges, HierarchyNodes nodes, int specimen) {
+		final int count = sortedEdges.length;
+		if (count == 0)
+			return minMatches <= 0;
+		
+		final int s = test.specimenEdge(nodes.rects)[specimen];
+		if (maxMatches >= count) {
+			if (minMatches == 1)
+				return test.atMost ? sortedEdges[0] <= s : sortedEdges[count - 1] >= s;
+			if (minMatches == count)
+				return test.atMost ? sortedEdges[count - 1] <= s : sortedEdges[0] >= s;
+		}
+		
+		final int passing = test.atMost ? countBelow(sortedEdges, s, true) : count - countBelow(sortedEdges, s, false);
+		return (passing >= minMatches && passing <= maxMatches);
+	}
+	
+	// how many edges are less than value, or equal to it too if inclusive
+	private static int countBelow(int[] sorted, int value, boolean inclusive) {
+		int low = 0, high = sorted.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (sorted[mid] < value || (inclusive && sorted[mid] == value))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Whether {@link #matchesOverlapping} is likely to beat {@link #matches}: a grid query scans a few cells' worth of
+	 * items whatever it finds, so on a screen where everything overlaps it's no better than trying every potential.
+	 */
+	boolean prefersOverlapGrid(HierarchyNodes nodes) {
+		return potentials.length > GRID_MIN_POTENTIALS && potentials.length > 4 * nodes.getOverlapGrid().averageCellLoad();
+	}
+	
+	/** Like {@link #matches}, for a test that can only pass for potentials that intersect the specimen. */
+	boolean matchesOverlapping(final NodePairTest test, final HierarchyNodes nodes, final int specimen) {
+		final int[] matches = new int[1];
+		nodes.visitOverlapping(specimen, new OverlapGrid.Visitor() {
+			@Override
+			public void visit(int node) {
+				if (m_IsPotential[node] && matches[0] <= maxMatches && test.test(nodes, node, specimen))
+					matches[0]++;
+			}
+		});
+		
+		return (matches[0] >= minMatches && matches[0] <= maxMatches);
+	}
+}
@@ -0,0 +1,89 @@
+package com.tophyr.csftests;
+
+/**
+ * A test between one of a combination's potentials and a specimen, both nodes of the same {@link HierarchyNodes}.
+ */
+abstract class NodePairTest {
+	
+	abstract boolean test(HierarchyNodes nodes, int potential, int specimen);
+	
+	/** @return roughly how many comparisons one test takes */
+	float cost() {
+		return 2;
+	}
+	
+	/** @return roughly what share of pairs pass */
+	float passRate() {
+		return 0.5f;
+	}
+	
+	private static final int LEFT = 0, TOP = 1, RIGHT = 2, BOTTOM = 3;
+	
+	/**
+	 * A test that only compares one edge of the potential with one edge of the specimen, passing when the potential's
+	 * is at most the specimen's (or at least it, if not {@link #atMost}). How many potentials pass then only depends
+	 * on where the specimen's edge falls among theirs; see {@link NodeCombination#matchesSorted}.
+	 */
+	static final class EdgeComparison extends NodePairTest {
+		private final int m_PotentialEdge, m_SpecimenEdge;
+		final boolean atMost;
+		
+		private EdgeComparison(int potentialEdge, int specimenEdge, boolean atMost) {
+			m_PotentialEdge = potentialEdge;
+			m_SpecimenEdge = specimenEdge;
+			this.atMost = atMost;
+		}
+		
+		int[] potentialEdge(RectTable rects) {
+			return edge(rects, m_PotentialEdge);
+		}
+		
+		int[] specimenEdge(RectTable rects) {
+			return edge(rects, m_SpecimenEdge);
+		}
+		
+		private static int[] edge(RectTable rects, int edge) {
+			switch (edge) {
+			case LEFT: return rects.left;
+			case TOP: return rects.top;
+			case RIGHT: return rects.right;
+			default: return rects.bottom;
+			}
+		}
+		
+		@Override
+		boolean test(HierarchyNodes nodes, int potential, int specimen) {
+			final int p = potentialEdge(nodes.rects)[potential], s = specimenEdge(nodes.rects)[specimen];
+			return atMost ? p <= s : p >= s;
+		}
+	}
+	
+	static final NodePairTest POTENTIAL_LEFT_OF = new EdgeComparison(RIGHT, LEFT, true);
+	static final NodePairTest POTENTIAL_RIGHT_OF = new EdgeComparison(LEFT, RIGHT, false);
+	static final NodePairTest POTENTIAL_ABOVE = new EdgeComparison(BOTTOM, TOP, true);
+	static final NodePairTest POTENTIAL_BELOW = new EdgeComparison(TOP, BOTTOM, false);
+	
+	/** Both visible and intersecting, with the potential in front of the specimen if over, or behind it if not. */
+	static NodePairTest overlaps(final boolean over) {
+		return new NodePairTest() {
+			@Override
+			boolean test(HierarchyNodes nodes, int potential, int specimen) {
+				return nodes.visibility[potential] == HierarchyNodes.VISIBLE &&
+					   nodes.visibility[specimen] == HierarchyNodes.VISIBLE &&
+					   RectTable.intersects(nodes.rects, potential, nodes.rects, specimen) &&
+					   (over ? nodes.isInFrontOf(potential, specimen) : nodes.isInFrontOf(specimen, potential));
+			}
+			
+			@Override
+			float cost() {
+				return 8;
+			}
+			
+			// most views only overlap their own ancestors and descendants, a sliver of the hierarchy
+			@Override
+			float passRate() {
+				return 0.01f;
+			}
+		};
+	}
+}
@@ -0,0 +1,165 @@
+package com.tophyr.csftests;
+
+import java.util.regex.Pattern;
+
+/**
+ * A filter over the nodes of a {@link HierarchyNodes}.
+ *
+ * {@link #prepare} is called once, on the evaluating thread, before any node is tested; after that {@link #test} may
+ * be called from several threads at once, so it mustn't change anything. A predicate only ever looks at the node it's
+ * given, so a chain of them finds the same nodes in any order; {@link QueryPlan} picks the order from
+ * {@link #cost} and {@link #selectivity}.
+ */
+abstract class NodePredicate {
+	
+	// literal and regex matches rarely pass more than a handful of views
+	private static final float TEXT_SELECTIVITY = 0.05f;
+	
+	/** @return false if this predicate can't be answered from these nodes, and the live views must be searched instead */
+	boolean prepare(HierarchyNodes nodes) {
+		return true;
+	}
+	
+	abstract boolean test(HierarchyNodes nodes, int node);
+	
+	/** @return roughly how many comparisons one test takes; only asked once prepared */
+	float cost(HierarchyNodes nodes) {
+		return 1;
+	}
+	
+	/** @return roughly what share of nodes pass; only asked once prepared */
+	float selectivity(HierarchyNodes nodes) {
+		return 0.5f;
+	}
+	
+	/** Nodes whose class is, or extends, any of the named types. Null names are ignored. */
+	static NodePredicate isA(final String... typeNames) {
+		return new NodePredicate() {
+			private HierarchyNodes m_Nodes;
+			private boolean[] m_Matches;
+			
+			// there are far fewer classes than nodes, so answer once per class
+			@Override
+			boolean prepare(HierarchyNodes nodes) {
+				boolean[] matches = new boolean[nodes.classes.length];
+				for (int c = 0; c < matches.length; c++)
+					for (String typeName : typeNames)
+						matches[c] |= typeName != null && nodes.classes[c].isA(typeName);
+				m_Matches = matches;
+				m_Nodes = nodes;
+				return true;
+			}
+			
+			@Override
+			boolean test(HierarchyNodes nodes, int node) {
+				if (nodes != m_Nodes)
+					throw new IllegalStateException("Not prepared for these nodes.");
+				return m_Matches[nodes.classOf[node]];
+			}
+			
+			// exact, from how many nodes there are of each class
+			@Override
+			float selectivity(HierarchyNodes nodes) {
+				final int[] counts = nodes.classCounts();
+				int matching = 0;
+				for (int c = 0; c < counts.length; c++)
+					if (m_Matches[c])
+						matching += counts[c];
+				return nodes.size == 0 ? 0 : (float)matching / nodes.size;
+			}
+		};
+	}
+	
+	static NodePredicate literalText(final LiteralText mode, final String literal, final boolean includeHint) {
+		return new NodePredicate() {
+			@Override
+			boolean test(HierarchyNodes nodes, int node) {
+				return (nodes.text[node] != null && mode.matches(nodes.text[node], literal)) ||
+					   (includeHint && nodes.hint[node] != null && mode.matches(nodes.hint[node], literal));
+			}
+			
+			@Override
+			float cost(HierarchyNodes nodes) {
+				return includeHint ? 8 : 4;
+			}
+			
+			@Override
+			float selectivity(HierarchyNodes nodes) {
+				return TEXT_SELECTIVITY;
+			}
+		};
+	}
+	
+	static NodePredicate matchesRegex(final Pattern p, final boolean includeHint) {
+		return new NodePredicate() {
+			@Override
+			boolean test(HierarchyNodes nodes, int node) {
+				return (nodes.text[node] != null && p.matcher(nodes.text[node]).matches()) ||
+					   (includeHint && nodes.hint[node] != null && p.matcher(nodes.hint[node]).matches());
+			}
+			
+			@Override
+			float cost(HierarchyNodes nodes) {
+				return includeHint ? 32 : 16;
+			}
+			
+			@Override
+			float selectivity(HierarchyNodes nodes) {
+				return TEXT_SELECTIVITY;
+			}
+		};
+	}
+	
+	/**
+	 * Nodes for which the right number of a combination's potentials pass test.
+	 *
+	 * @param overlappingOnly if test can only pass for potentials that intersect the node, so only those are tried
+	 */
+	static NodePredicate combination(final NodeCombination.Source source, final NodePairTest test, final boolean overlappingOnly) {
+		final NodePairTest.EdgeComparison edges = test instanceof NodePairTest.EdgeComparison ? (NodePairTest.EdgeComparison)test : null;
+		return new NodePredicate() {
+			private NodeCombination m_Combination;
+			private boolean m_UseGrid;
+			private int[] m_SortedEdges;
+			
+			@Override
+			boolean prepare(HierarchyNodes nodes) {
+				m_Combination = source.resolve(nodes);
+				m_UseGrid = m_Combination != null && overlappingOnly && m_Combination.prefersOverlapGrid(nodes);
+				m_SortedEdges = m_Combination != null && edges != null ? m_Combination.sortedEdges(edges, nodes) : null;
+				return m_Combination != null;
+			}
+			
+			@Override
+			boolean test(HierarchyNodes nodes, int node) {
+				if (m_SortedEdges != null)
+					return m_Combination.matchesSorted(edges, m_SortedEdges, nodes, node);
+				if (m_UseGrid)
+					return m_Combination.matchesOverlapping(test, nodes, node);
+				return m_Combination.matches(test, nodes, node);
+			}
+			
+			// sorted edges take a binary search at most; a grid query scans a few cells' worth of items; otherwise every
+			// potential is tried
+			@Override
+			float cost(HierarchyNodes nodes) {
+				if (m_SortedEdges != null)
+					return 1 + 32 - Integer.numberOfLeadingZeros(m_SortedEdges.length);
+				final int pairs = m_UseGrid ? 4 * nodes.getOverlapGrid().averageCellLoad() : m_Combination.potentials.length;
+				return Math.max(1, pairs) * test.cost();
+			}
+			
+			// as if each potential passed independently
+			@Override
+			float selectivity(HierarchyNodes nodes) {
+				final int potentials = m_Combination.potentials.length;
+				final float p = test.passRate();
+				if (m_Combination.minMatches >= potentials)
+					return (float)Math.pow(p, potentials);
+				if (m_Combination.minMatches <= 1 && m_Combination.maxMatches >= potentials)
+					return 1 - (float)Math.pow(1 - p, potentials);
+				return p;
+			}
+		};
+	}
+}
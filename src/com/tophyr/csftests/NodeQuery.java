@@ -0,0 +1,171 @@
+package com.tophyr.csftests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a chain of {@link NodePredicate}s over a {@link HierarchyNodes}, splitting large searches across cores.
+ */
+final class NodeQuery {
+	
+	// below this many candidates, handing work to other threads costs more than it saves
+	static final int PARALLEL_THRESHOLD = 2048;
+	
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	
+	private static ExecutorService s_Pool;
+	
+	/** Told how much work a search did; may be called once per chunk, from several threads at once. */
+	interface Listener {
+		void searched(int visited, long tests);
+	}
+	
+	private NodeQuery() {
+	}
+	
+	private static synchronized ExecutorService getPool() {
+		if (s_Pool == null) {
+			s_Pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				private int m_Count;
+				
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "CSFActivityTestCase finder " + ++m_Count);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return s_Pool;
+	}
+	
+	/** Stops the worker threads; a later search starts new ones. */
+	static synchronized void shutdown() {
+		if (s_Pool != null) {
+			s_Pool.shutdown();
+			s_Pool = null;
+		}
+	}
+	
+	/** @return false if any stage can't be answered from these nodes */
+	static boolean prepare(HierarchyNodes nodes, List<NodePredicate> stages) {
+		for (NodePredicate stage : stages)
+			if (stage == null || !stage.prepare(nodes))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * @param candidates the nodes to consider, in the order results should come back, or null for all of them in walk order
+	 * @param listener told how much work was done, or null
+	 * @return up to limit nodes that pass every (already prepared) stage, in candidate order
+	 */
+	static int[] evaluate(HierarchyNodes nodes, int[] candidates, List<NodePredicate> stages, int limit, Listener listener) {
+		return evaluate(nodes, candidates, stages.toArray(new NodePredicate[stages.size()]), limit, listener, null);
+	}
+	
+	/**
+	 * Runs the stages in exactly the order given.
+	 * 
+	 * @param reached if not null, has chain.length + 1 counts: how many nodes each stage was asked about, then how many
+	 *        passed them all; this search's counts are added on
+	 */
+	static int[] evaluate(final HierarchyNodes nodes, final int[] candidates, final NodePredicate[] chain, int limit,
+			final Listener listener, final long[] reached) {
+		final int count = candidates == null ? nodes.size : candidates.length;
+		
+		if (limit < count || count < PARALLEL_THRESHOLD || THREADS < 2)
+			return evaluate(nodes, candidates, chain, 0, count, limit, listener, reached);
+		
+		// a few chunks per thread, so one slow chunk doesn't hold everything up
+		final int chunk = Math.max(PARALLEL_THRESHOLD / 4, (count + THREADS * 4 - 1) / (THREADS * 4));
+		List<Future<int[]>> parts = new ArrayList<Future<int[]>>();
+		for (int start = 0; start < count; start += chunk) {
+			final int from = start, to = Math.min(count, start + chunk);
+			parts.add(getPool().submit(new Callable<int[]>() {
+				@Override
+				public int[] call() {
+					return evaluate(nodes, candidates, chain, from, to, Integer.MAX_VALUE, listener, reached);
+				}
+			}));
+		}
+		
+		try {
+			int total = 0;
+			List<int[]> results = new ArrayList<int[]>(parts.size());
+			for (Future<int[]> part : parts) {
+				int[] result = part.get();
+				results.add(result);
+				total += result.length;
+			}
+			
+			int[] matches = new int[total];
+			int offset = 0;
+			for (int[] result : results) {
+				System.arraycopy(result, 0, matches, offset, result.length);
+				offset += result.length;
+			}
+			return matches;
+		} catch (InterruptedException e) {
+			for (Future<int[]> part : parts)
+				part.cancel(true);
+			throw new RuntimeException("Interrupted while searching views.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	private static int[] evaluate(HierarchyNodes nodes, int[] candidates, NodePredicate[] chain, int from, int to, int limit,
+			Listener listener, long[] reached) {
+		int[] matches = new int[Math.min(16, to - from)];
+		int count = 0;
+		long tests = 0;
+		// how many nodes stopped at each stage, the last slot being those that passed them all
+		final int[] stopped = reached == null ? null : new int[chain.length + 1];
+		
+		int c;
+		for (c = from; c < to && count < limit; c++) {
+			final int node = candidates == null ? c : candidates[c];
+			
+			int stage = 0;
+			while (stage < chain.length && chain[stage].test(nodes, node))
+				stage++;
+			tests += Math.min(stage + 1, chain.length);
+			if (stopped != null)
+				stopped[stage]++;
+			
+			if (stage == chain.length) {
+				if (count == matches.length) {
+					int[] bigger = new int[Math.max(16, matches.length * 2)];
+					System.arraycopy(matches, 0, bigger, 0, count);
+					matches = bigger;
+				}
+				matches[count++] = node;
+			}
+		}
+		
+		if (listener != null)
+			listener.searched(c - from, tests);
+		if (stopped != null) {
+			synchronized (reached) {
+				long passed = 0;
+				for (int stage = chain.length; stage >= 0; stage--) {
+					passed += stopped[stage];
+					reached[stage] += passed;
+				}
+			}
+		}
+		
+		int[] result = new int[count];
+		System.arraycopy(matches, 0, result, 0, count);
+		return result;
+	}
+}
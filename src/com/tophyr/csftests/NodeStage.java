@@ -0,0 +1,91 @@
+package com.tophyr.csftests;
+
+import java.util.regex.Pattern;
+
+/**
+ * One stage of a finder query as far as nodes go: what it asks of each node, and how it reads in a description. The
+ * query helpers build their stages here, whether they search views on a device or a {@link SnapshotFile} on the host,
+ * so both search the same way and describe it in the same words.
+ */
+final class NodeStage {
+	
+	/** What the stage asks of each node, or null if it can only be answered from live views. */
+	final NodePredicate predicate;
+	private final String m_Format;
+	private final Object[] m_Args;
+	
+	/** @param format the first %s is the description of everything before this stage, args fill in the rest */
+	NodeStage(NodePredicate predicate, String format, Object... args) {
+		this.predicate = predicate;
+		m_Format = format;
+		m_Args = args;
+	}
+	
+	String describe(String previous) {
+		Object[] formatArgs = new Object[m_Args.length + 1];
+		formatArgs[0] = previous;
+		System.arraycopy(m_Args, 0, formatArgs, 1, m_Args.length);
+		return String.format(m_Format, formatArgs);
+	}
+	
+	// as a QueryPlan label
+	@Override
+	public String toString() {
+		return describe("...");
+	}
+	
+	static NodeStage literalText(LiteralText mode, String literal, boolean includeHint) {
+		return new NodeStage(NodePredicate.literalText(mode, literal, includeHint), "%s that %s%s '%s'", mode.verb,
+				includeHint ? " (or whose hints " + mode.verb + ")" : "", literal);
+	}
+	
+	static NodeStage matchesRegex(Pattern p, boolean includeHint) {
+		return new NodeStage(NodePredicate.matchesRegex(p, includeHint), "%s that match%s '%s'", includeHint ? " with hint" : "", p.pattern());
+	}
+	
+	static NodeStage isA(String typeName) {
+		final String simpleName = typeName.substring(Math.max(typeName.lastIndexOf('.'), typeName.lastIndexOf('$')) + 1);
+		return new NodeStage(NodePredicate.isA(typeName), "%s that are %ss", simpleName);
+	}
+	
+	/** Nodes that cover the right number of others, if over, or that the right number of others cover. */
+	static NodeStage covering(NodeCombination.Source others, boolean over) {
+		return new NodeStage(NodePredicate.combination(others, NodePairTest.overlaps(over), true), "%s that %s %s",
+				over ? "cover" : "are covered by", others);
+	}
+	
+	static NodeStage toLeftOf(NodeCombination.Source anchor) {
+		return new NodeStage(NodePredicate.combination(anchor, NodePairTest.POTENTIAL_LEFT_OF, false), "%s to the left of %s", anchor);
+	}
+	
+	static NodeStage toRightOf(NodeCombination.Source anchor) {
+		return new NodeStage(NodePredicate.combination(anchor, NodePairTest.POTENTIAL_RIGHT_OF, false), "%s to the right of %s", anchor);
+	}
+	
+	static NodeStage above(NodeCombination.Source anchor) {
+		return new NodeStage(NodePredicate.combination(anchor, NodePairTest.POTENTIAL_ABOVE, false), "%s above %s", anchor);
+	}
+	
+	static NodeStage below(NodeCombination.Source anchor) {
+		return new NodeStage(NodePredicate.combination(anchor, NodePairTest.POTENTIAL_BELOW, false), "%s below %s", anchor);
+	}
+	
+	/** @return how a combination of potentials, of which between min and max must pass, reads in a description */
+	static String describeCombination(int min, int max, int potentials, String source) {
+		StringBuilder sb = new StringBuilder();
+		if (min == max && min == potentials) {
+			sb.append("all ");
+		} else if (min == 1 && max == potentials) {
+			sb.append("any ");
+		} else {
+			if (min > 1)
+				sb.append("at least ").append(min).append(" ");
+			if (max < Integer.MAX_VALUE) {
+				if (sb.length() > 0)
+					sb.append("but ");
+				sb.append("at most ").append(max).append(" ");
+			}
+		}
+		return sb.append("of ").append(source).toString();
+	}
+}
@@ -0,0 +1,115 @@
+package com.tophyr.csftests;
+
+/**
+ * A uniform grid over a fixed set of screen rects, for finding which of them intersect a query rect without testing
+ * every one.
+ *
+ * Intersection follows {@code android.graphics.Rect.intersects}: edges are exclusive, and a zero-sized rect still
+ * intersects anything that strictly contains its position. Items are stored once per cell they touch; a query only
+ * reports an item from the cell holding the top-left corner of the overlap, so nothing is reported twice and the
+ * grid needs no per-query scratch state.
+ */
+final class OverlapGrid {
+	
+	interface Visitor {
+		void visit(int item);
+	}
+	
+	private final int[] m_Left, m_Top, m_Right, m_Bottom;
+	private final int m_OriginX, m_OriginY;
+	private final int m_CellSize;
+	private final int m_Columns, m_Rows;
+	
+	// cell c holds m_CellItems[m_CellStart[c]] up to (but not including) m_CellItems[m_CellStart[c + 1]]
+	private final int[] m_CellStart;
+	private final int[] m_CellItems;
+	
+	OverlapGrid(RectTable rects) {
+		final int[] left = rects.left, top = rects.top, right = rects.right, bottom = rects.bottom;
+		final int count = rects.size;
+		m_Left = left;
+		m_Top = top;
+		m_Right = right;
+		m_Bottom = bottom;
+		
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			minX = Math.min(minX, left[i]);
+			minY = Math.min(minY, top[i]);
+			maxX = Math.max(maxX, Math.max(left[i], right[i]));
+			maxY = Math.max(maxY, Math.max(top[i], bottom[i]));
+		}
+		if (count == 0)
+			minX = minY = maxX = maxY = 0;
+		
+		// aim for roughly one item per cell along each axis of a square-ish screen, but no smaller than the average
+		// item: cells much smaller than the items just store (and scan) every item many times over
+		final int span = Math.max(1, Math.max(maxX - minX, maxY - minY));
+		final int cellsPerSide = Math.max(1, (int)Math.ceil(Math.sqrt(count)));
+		long extent = 0;
+		for (int i = 0; i < count; i++)
+			extent += Math.max(right[i] - left[i], bottom[i] - top[i]);
+		final int averageExtent = count == 0 ? 1 : (int)(extent / count);
+		m_CellSize = Math.max(1, Math.max(averageExtent, (span + cellsPerSide - 1) / cellsPerSide));
+		m_OriginX = minX;
+		m_OriginY = minY;
+		m_Columns = (maxX - minX) / m_CellSize + 1;
+		m_Rows = (maxY - minY) / m_CellSize + 1;
+		
+		m_CellStart = new int[m_Columns * m_Rows + 1];
+		for (int i = 0; i < count; i++) {
+			for (int row = firstRow(i); row <= lastRow(i); row++)
+				for (int col = firstColumn(i); col <= lastColumn(i); col++)
+					m_CellStart[row * m_Columns + col + 1]++;
+		}
+		for (int c = 0; c < m_Columns * m_Rows; c++)
+			m_CellStart[c + 1] += m_CellStart[c];
+		
+		m_CellItems = new int[m_CellStart[m_Columns * m_Rows]];
+		int[] fill = new int[m_Columns * m_Rows];
+		for (int i = 0; i < count; i++) {
+			for (int row = firstRow(i); row <= lastRow(i); row++) {
+				for (int col = firstColumn(i); col <= lastColumn(i); col++) {
+					int cell = row * m_Columns + col;
+					m_CellItems[m_CellStart[cell] + fill[cell]++] = i;
+				}
+			}
+		}
+	}
+	
+	private int column(int x) {
+		return Math.min(m_Columns - 1, Math.max(0, (x - m_OriginX) / m_CellSize));
+	}
+	
+	private int row(int y) {
+		return Math.min(m_Rows - 1, Math.max(0, (y - m_OriginY) / m_CellSize));
+	}
+	
+	private int firstColumn(int i) { return column(m_Left[i]); }
+	private int lastColumn(int i) { return column(Math.max(m_Left[i], m_Right[i] - 1)); }
+	private int firstRow(int i) { return row(m_Top[i]); }
+	private int lastRow(int i) { return row(Math.max(m_Top[i], m_Bottom[i] - 1)); }
+	
+	/** @return how many items an average cell holds */
+	int averageCellLoad() {
+		return m_CellItems.length / (m_Columns * m_Rows);
+	}
+	
+	void query(int left, int top, int right, int bottom, Visitor visitor) {
+		final int firstCol = column(left), lastCol = column(Math.max(left, right - 1));
+		final int firstRow = row(top), lastRow = row(Math.max(top, bottom - 1));
+		
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int col = firstCol; col <= lastCol; col++) {
+				final int cell = row * m_Columns + col;
+				for (int k = m_CellStart[cell]; k < m_CellStart[cell + 1]; k++) {
+					final int i = m_CellItems[k];
+					if (!(m_Left[i] < right && left < m_Right[i] && m_Top[i] < bottom && top < m_Bottom[i]))
+						continue;
+					if (column(Math.max(left, m_Left[i])) == col && row(Math.max(top, m_Top[i])) == row)
+						visitor.visit(i);
+				}
+			}
+		}
+	}
+}
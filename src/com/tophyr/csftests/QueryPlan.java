@@ -0,0 +1,101 @@
+package com.tophyr.csftests;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The order a chain of {@link NodePredicate}s runs in over a {@link HierarchyNodes}.
+ *
+ * Each stage only looks at the node it's testing, so the same nodes pass whatever order the stages run in; only the
+ * work differs. Once the stages are prepared, each estimates its cost and selectivity (see {@link NodePredicate}),
+ * and they run in ascending order of cost / (1 - selectivity), which is the cheapest order for independent filters:
+ * type checks before text before regexes before geometry before z-order, unless the estimates say otherwise. Stages
+ * that estimate the same keep the order they were given in.
+ *
+ * {@link #explain} shows the order picked and, once evaluated, how many nodes each stage was asked about and passed.
+ */
+final class QueryPlan {
+	
+	private final HierarchyNodes m_Nodes;
+	// in plan order
+	private final NodePredicate[] m_Chain;
+	private final Object[] m_Labels;
+	private final int[] m_Given;
+	private final float[] m_Cost, m_Selectivity;
+	
+	// from evaluate
+	private int m_Candidates = -1;
+	private final long[] m_Reached;
+	
+	private QueryPlan(HierarchyNodes nodes, List<NodePredicate> stages, List<?> labels) {
+		final int count = stages.size();
+		m_Nodes = nodes;
+		m_Chain = new NodePredicate[count];
+		m_Labels = new Object[count];
+		m_Given = new int[count];
+		m_Cost = new float[count];
+		m_Selectivity = new float[count];
+		m_Reached = new long[count + 1];
+		
+		// there are only ever a few stages, so a stable insertion sort does
+		final float[] rank = new float[count];
+		for (int i = 0; i < count; i++) {
+			final NodePredicate stage = stages.get(i);
+			final float cost = stage.cost(nodes), selectivity = stage.selectivity(nodes);
+			final float stageRank = cost / Math.max(1e-3f, 1 - selectivity);
+			
+			int at = i;
+			for (; at > 0 && rank[at - 1] > stageRank; at--) {
+				rank[at] = rank[at - 1];
+				m_Chain[at] = m_Chain[at - 1];
+				m_Labels[at] = m_Labels[at - 1];
+				m_Given[at] = m_Given[at - 1];
+				m_Cost[at] = m_Cost[at - 1];
+				m_Selectivity[at] = m_Selectivity[at - 1];
+			}
+			rank[at] = stageRank;
+			m_Chain[at] = stage;
+			m_Labels[at] = labels == null ? null : labels.get(i);
+			m_Given[at] = i;
+			m_Cost[at] = cost;
+			m_Selectivity[at] = selectivity;
+		}
+	}
+	
+	/**
+	 * @param labels what each stage is, for {@link #explain}, which is the only thing that calls toString on them; may
+	 *        be null
+	 * @return null if any stage can't be answered from these nodes
+	 */
+	static QueryPlan prepare(HierarchyNodes nodes, List<NodePredicate> stages, List<?> labels) {
+		if (!NodeQuery.prepare(nodes, stages))
+			return null;
+		return new QueryPlan(nodes, stages, labels);
+	}
+	
+	/** Like {@link NodeQuery#evaluate}, with the stages in plan order. */
+	int[] evaluate(int[] candidates, int limit, NodeQuery.Listener listener) {
+		m_Candidates = candidates == null ? m_Nodes.size : candidates.length;
+		Arrays.fill(m_Reached, 0);
+		return NodeQuery.evaluate(m_Nodes, candidates, m_Chain, limit, listener, m_Reached);
+	}
+	
+	/** @return one line per stage, in the order they run */
+	String explain() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d stage%s over %s of %d nodes", m_Chain.length, m_Chain.length == 1 ? "" : "s",
+				m_Candidates < 0 ? "(not yet evaluated)" : m_Candidates + " candidates", m_Nodes.size));
+		for (int i = 0; i < m_Chain.length; i++) {
+			sb.append(String.format("\n%d. %s (given %d): cost ~%.0f, passes ~%.0f%%", i + 1,
+					m_Labels[i] != null ? m_Labels[i] : "stage", m_Given[i] + 1, m_Cost[i], 100 * m_Selectivity[i]));
+			if (m_Candidates >= 0)
+				sb.append(String.format("; asked about %d, passed %d", m_Reached[i], m_Reached[i + 1]));
+		}
+		return sb.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return explain();
+	}
+}
@@ -0,0 +1,31 @@
+package com.tophyr.csftests;
+
+/**
+ * Screen rects for a list of views, stored as parallel arrays so geometric queries can compare them without
+ * allocating. Entry i belongs to the i-th view of whatever list the table was filled from.
+ */
+final class RectTable {
+	
+	final int[] left, top, right, bottom;
+	final int size;
+	
+	RectTable(int size) {
+		this.size = size;
+		left = new int[size];
+		top = new int[size];
+		right = new int[size];
+		bottom = new int[size];
+	}
+	
+	void set(int i, int l, int t, int r, int b) {
+		left[i] = l;
+		top[i] = t;
+		right[i] = r;
+		bottom[i] = b;
+	}
+	
+	// same semantics as android.graphics.Rect.intersects
+	static boolean intersects(RectTable a, int ai, RectTable b, int bi) {
+		return a.left[ai] < b.right[bi] && b.left[bi] < a.right[ai] && a.top[ai] < b.bottom[bi] && b.top[bi] < a.bottom[ai];
+	}
+}
@@ -0,0 +1,251 @@
+package com.tophyr.csftests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.app.Instrumentation;
+import android.view.KeyEvent;
+import android.view.View;
+import android.widget.EditText;
+
+import com.tophyr.csftests.CSFActivityTestCase.FindViewResult;
+
+import junit.framework.Assert;
+import junit.framework.AssertionFailedError;
+
+/**
+ * Clicks, key presses and text entries dispatched back to back, syncing only at the checkpoints declared between them.
+ * Each stretch between checkpoints finds its targets in one snapshot, so put a checkpoint wherever a step needs an
+ * earlier one to have taken effect. {@link #run} fails at the first failing step, with how long each step took.
+ */
+public class Script {
+	
+	// one thing a Script does
+	private abstract static class Step {
+		// what its time counts towards in the stats, or null if it's already counted
+		final HelperStats.Family family;
+		long nanos = -1;
+		
+		Step(HelperStats.Family family) {
+			this.family = family;
+		}
+		
+		/** @return a failure message, or null */
+		abstract String run();
+		
+		abstract String describe();
+	}
+	
+	private final CSFActivityTestCase<?> m_Test;
+	private final Instrumentation m_Instrumentation;
+	private final HelperStats m_Stats;
+	private final List<Step> m_Steps = new ArrayList<Step>();
+	// what targets are looked up in until the next checkpoint; null to take a new one
+	private ViewSnapshot m_Segment;
+	
+	Script(CSFActivityTestCase<?> test, HelperStats stats) {
+		m_Test = test;
+		m_Instrumentation = test.getInstrumentation();
+		m_Stats = stats;
+	}
+	
+	public Script click(int id) {
+		return click(m_Test.withId(id));
+	}
+	
+	public Script click(final FindViewResult<? extends View> target) {
+		Assert.assertNotNull("Tried to click null pattern.", target);
+		m_Steps.add(new Step(HelperStats.Family.CLICK) {
+			@Override
+			String run() {
+				final View view = resolve(target);
+				if (view == null)
+					return String.format("Failed to find any %s", target.getDescription());
+				m_Test.tap(view);
+				return null;
+			}
+			
+			@Override
+			String describe() {
+				return "click " + target.getDescription();
+			}
+		});
+		return this;
+	}
+	
+	public Script back() {
+		return key(KeyEvent.KEYCODE_BACK);
+	}
+	
+	public Script menu() {
+		return key(KeyEvent.KEYCODE_MENU);
+	}
+	
+	public Script key(final int keyCode) {
+		m_Steps.add(new Step(HelperStats.Family.CLICK) {
+			@Override
+			String run() {
+				m_Instrumentation.sendKeyDownUpSync(keyCode);
+				return null;
+			}
+			
+			@Override
+			String describe() {
+				return "key " + keyCode;
+			}
+		});
+		return this;
+	}
+	
+	public Script enterText(int id, CharSequence text) {
+		return enterText(m_Test.withId(id), text);
+	}
+	
+	public Script enterText(FindViewResult<? extends View> target, CharSequence text) {
+		return text(target, text, false);
+	}
+	
+	public Script typeText(int id, CharSequence text) {
+		return typeText(m_Test.withId(id), text);
+	}
+	
+	public Script typeText(FindViewResult<? extends View> target, CharSequence text) {
+		return text(target, text, true);
+	}
+	
+	private Script text(final FindViewResult<? extends View> target, final CharSequence text, final boolean keys) {
+		Assert.assertNotNull("Tried to enter text into null pattern.", target);
+		Assert.assertNotNull("Tried to enter null text.", text);
+		m_Steps.add(new Step(HelperStats.Family.ENTER_TEXT) {
+			@Override
+			String run() {
+				final View view = resolve(target);
+				if (view == null)
+					return String.format("Failed to find any %s", target.getDescription());
+				if (!(view instanceof EditText))
+					return String.format("%s is a %s, not an EditText", target.getDescription(), view.getClass().getSimpleName());
+				
+				final EditText editText = (EditText)view;
+				if (keys) {
+					m_Instrumentation.runOnMainSync(new Runnable() {
+						@Override
+						public void run() {
+							editText.requestFocus();
+							editText.setSelection(editText.getText().length());
+						}
+					});
+					m_Instrumentation.sendStringSync(text.toString());
+				} else if (!m_Test.commitText(editText, text, false)) {
+					return String.format("Couldn't enter text into %s", target.getDescription());
+				}
+				return null;
+			}
+			
+			@Override
+			String describe() {
+				return String.format("%s '%s' into %s", keys ? "type" : "enter", text, target.getDescription());
+			}
+		});
+		return this;
+	}
+	
+	/** Waits for the app to go idle; later steps find their targets in the screen as it is then. */
+	public Script checkpoint() {
+		m_Steps.add(new Step(HelperStats.Family.IDLE_SYNC) {
+			@Override
+			String run() {
+				m_Instrumentation.waitForIdleSync();
+				m_Segment = null;
+				return null;
+			}
+			
+			@Override
+			String describe() {
+				return "checkpoint";
+			}
+		});
+		return this;
+	}
+	
+	/** Like {@link #checkpoint()}, then checks expectations, stopping the script if any of them fail. */
+	public Script checkpoint(final Batch expectations) {
+		Assert.assertNotNull("Tried to check null expectations.", expectations);
+		// the batch syncs before it checks anything, and counts its own time
+		m_Steps.add(new Step(null) {
+			@Override
+			String run() {
+				m_Segment = null;
+				try {
+					expectations.check();
+					return null;
+				} catch (AssertionFailedError e) {
+					return e.getMessage();
+				}
+			}
+			
+			@Override
+			String describe() {
+				return "checkpoint with expectations";
+			}
+		});
+		return this;
+	}
+	
+	private View resolve(FindViewResult<? extends View> target) {
+		if (m_Segment == null)
+			m_Segment = m_Test.getSnapshot();
+		m_Test.pinSnapshot(m_Segment);
+		try {
+			return target.getFirst();
+		} finally {
+			m_Test.pinSnapshot(null);
+		}
+	}
+	
+	public void run() {
+		run(null);
+	}
+	
+	public void run(String msg) {
+		m_Segment = null;
+		for (Step step : m_Steps)
+			step.nanos = -1;
+		
+		for (int i = 0; i < m_Steps.size(); i++) {
+			final Step step = m_Steps.get(i);
+			final long start = HelperStats.start();
+			String failure;
+			try {
+				failure = step.run();
+			} catch (RuntimeException e) {
+				failure = e.toString();
+			} finally {
+				step.nanos = System.nanoTime() - start;
+				if (step.family != null)
+					m_Stats.record(step.family, step.nanos);
+			}
+			
+			if (failure != null) {
+				StringBuilder report = new StringBuilder();
+				if (msg != null)
+					report.append(msg).append("\n");
+				report.append(String.format("Step %d of %d (%s) failed: %s\n", i + 1, m_Steps.size(), step.describe(), failure));
+				report.append(getReport());
+				Assert.fail(report.toString());
+			}
+		}
+	}
+	
+	/** @return one line per step of the last run: what it did and how long it took */
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		for (int i = 0; i < m_Steps.size(); i++) {
+			final Step step = m_Steps.get(i);
+			if (i > 0)
+				report.append("\n");
+			report.append(String.format("%d. %s: ", i + 1, step.describe()));
+			report.append(step.nanos < 0 ? "not run" : String.format("%.1fms", step.nanos / 1e6));
+		}
+		return report.toString();
+	}
+}
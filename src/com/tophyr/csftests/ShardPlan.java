@@ -0,0 +1,66 @@
+package com.tophyr.csftests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Which shard each test of a suite runs in, kept in a small tab-separated file: one line per test of the shard's index
+ * and "class#method".
+ *
+ * The shard planner in tools/ writes it on the host. Pushed to the device and named to {@link CSFTestRunner} along
+ * with a shard index, it has each device run its own shard, however many tests that is, from two short arguments.
+ */
+final class ShardPlan {
+	
+	/** The instrumentation arguments (`adb shell am instrument -e <name> <value>`) CSFTestRunner takes a shard from. */
+	static final String PLAN_ARGUMENT = "shardPlan", INDEX_ARGUMENT = "shardIndex";
+	
+	private final TreeMap<String, Integer> m_Shards = new TreeMap<String, Integer>();
+	
+	static ShardPlan read(File file) throws IOException {
+		ShardPlan plan = new ShardPlan();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\t");
+				if (fields.length != 2)
+					throw new IOException("Malformed shard plan line: " + line);
+				plan.add(Integer.parseInt(fields[0]), fields[1]);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed shard plan: " + e.getMessage());
+		} finally {
+			in.close();
+		}
+		return plan;
+	}
+	
+	void write(Writer out) throws IOException {
+		out.write("# shard\ttest\n");
+		for (Map.Entry<String, Integer> e : m_Shards.entrySet())
+			out.write(String.format("%d\t%s\n", e.getValue(), e.getKey()));
+	}
+	
+	void add(int shard, String test) {
+		m_Shards.put(test, shard);
+	}
+	
+	/** @return whether shard runs the test; tests added since the plan was made run in shard 0, so none is left out */
+	boolean accepts(int shard, String className, String methodName) {
+		final Integer planned = m_Shards.get(className + "#" + methodName);
+		return (planned != null ? planned : 0) == shard;
+	}
+	
+	int size() {
+		return m_Shards.size();
+	}
+}
@@ -0,0 +1,188 @@
+package com.tophyr.csftests;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reads and writes {@link HierarchyNodes} as a compact binary file, so a hierarchy walked on a device can be searched
+ * again on any JVM; see {@link SnapshotReplay}.
+ *
+ * Everything is a big-endian int, except the string characters at the end, so the file can be mapped and read through
+ * an {@link IntBuffer} without parsing:
+ *
+ * <pre>
+ * header     magic "CSFH", version, node count n, class count, string count s, label (string, or -1), activity window (node, or -1)
+ * nodes      n each of: class, id, visibility, parent, left, top, right, bottom, text (string, or -1), hint (string, or -1)
+ * classes    for each: name (string), supertype count k, k supertypes (strings)
+ * strings    s + 1 offsets into the characters, then the UTF-16 characters, padded to a whole int
+ * </pre>
+ *
+ * Node columns follow one another rather than being interleaved, the way {@link HierarchyNodes} holds them. Nodes are
+ * in pre-order and the window roots are the nodes without a parent, so the parent links are the whole tree. Repeated
+ * strings (class names above all) are only stored once.
+ */
+final class SnapshotFile {
+	
+	static final int MAGIC = 0x43534648; // "CSFH"
+	static final int VERSION = 1;
+	
+	private static final int HEADER_INTS = 7;
+	
+	final HierarchyNodes nodes;
+	/** What the snapshot was taken of, such as the test and activity; may be null. */
+	final String label;
+	/** The root node of the activity's own window, or -1 if it isn't known. */
+	final int activityWindow;
+	
+	private SnapshotFile(HierarchyNodes nodes, String label, int activityWindow) {
+		this.nodes = nodes;
+		this.label = label;
+		this.activityWindow = activityWindow;
+	}
+	
+	static void write(HierarchyNodes nodes, String label, int activityWindow, File file) throws IOException {
+		final ArrayList<String> strings = new ArrayList<String>();
+		final HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+		final int labelIndex = intern(label, strings, stringIndices);
+		
+		final int[] text = new int[nodes.size], hint = new int[nodes.size];
+		for (int i = 0; i < nodes.size; i++) {
+			text[i] = intern(nodes.text[i], strings, stringIndices);
+			hint[i] = intern(nodes.hint[i], strings, stringIndices);
+		}
+		final int[][] classes = new int[nodes.classes.length][];
+		for (int c = 0; c < classes.length; c++) {
+			final HierarchyNodes.NodeClass cls = nodes.classes[c];
+			classes[c] = new int[cls.supertypes.length + 1];
+			classes[c][0] = intern(cls.name, strings, stringIndices);
+			for (int s = 0; s < cls.supertypes.length; s++)
+				classes[c][s + 1] = intern(cls.supertypes[s], strings, stringIndices);
+		}
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(nodes.size);
+			out.writeInt(classes.length);
+			out.writeInt(strings.size());
+			out.writeInt(labelIndex);
+			out.writeInt(activityWindow);
+			
+			final RectTable rects = nodes.rects;
+			for (int[] column : new int[][] { nodes.classOf, nodes.id, nodes.visibility, nodes.parent, rects.left, rects.top, rects.right, rects.bottom, text, hint })
+				for (int i = 0; i < nodes.size; i++)
+					out.writeInt(column[i]);
+			
+			for (int[] cls : classes) {
+				out.writeInt(cls[0]);
+				out.writeInt(cls.length - 1);
+				for (int s = 1; s < cls.length; s++)
+					out.writeInt(cls[s]);
+			}
+			
+			int offset = 0;
+			out.writeInt(offset);
+			for (String s : strings) {
+				offset += s.length();
+				out.writeInt(offset);
+			}
+			for (String s : strings)
+				out.writeChars(s);
+			if (offset % 2 != 0)
+				out.writeChar(0);
+		} finally {
+			out.close();
+		}
+	}
+	
+	private static int intern(String s, ArrayList<String> strings, HashMap<String, Integer> indices) {
+		if (s == null)
+			return -1;
+		Integer index = indices.get(s);
+		if (index == null) {
+			index = strings.size();
+			strings.add(s);
+			indices.put(s, index);
+		}
+		return index;
+	}
+	
+	static SnapshotFile read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+	
+	static SnapshotFile read(ByteBuffer buffer) throws IOException {
+		final IntBuffer ints = buffer.asIntBuffer();
+		if (ints.remaining() < HEADER_INTS || ints.get(0) != MAGIC)
+			throw new IOException("Not a view snapshot.");
+		if (ints.get(1) != VERSION)
+			throw new IOException("Unsupported view snapshot version " + ints.get(1));
+		
+		final int size = ints.get(2), classCount = ints.get(3), stringCount = ints.get(4), labelIndex = ints.get(5);
+		final int activityWindow = ints.get(6);
+		if (size < 0 || classCount < 0 || stringCount < 0 || activityWindow >= size)
+			throw new IOException("Corrupt view snapshot header.");
+		// the least the counts need, checked before they size anything
+		if (HEADER_INTS + 10L * size + 2L * classCount + stringCount + 1 > ints.remaining())
+			throw new IOException("Truncated view snapshot.");
+		
+		try {
+			// the strings are needed first, and the class table's length is only known by walking it
+			final int classesStart = HEADER_INTS + 10 * size;
+			int pos = classesStart;
+			for (int c = 0; c < classCount; c++)
+				pos += 2 + ints.get(pos + 1);
+			final int offsetsStart = pos;
+			final String[] strings = new String[stringCount];
+			final ByteBuffer charBytes = buffer.duplicate();
+			charBytes.position(buffer.position() + 4 * (offsetsStart + stringCount + 1));
+			final CharBuffer chars = charBytes.slice().asCharBuffer();
+			for (int s = 0; s < stringCount; s++) {
+				final int start = ints.get(offsetsStart + s), end = ints.get(offsetsStart + s + 1);
+				strings[s] = chars.subSequence(start, end).toString();
+			}
+			
+			HierarchyNodes.Builder builder = new HierarchyNodes.Builder();
+			pos = classesStart;
+			for (int c = 0; c < classCount; c++) {
+				final String name = strings[ints.get(pos)];
+				final String[] supertypes = new String[ints.get(pos + 1)];
+				for (int s = 0; s < supertypes.length; s++)
+					supertypes[s] = strings[ints.get(pos + 2 + s)];
+				pos += 2 + supertypes.length;
+				builder.addClass(name, supertypes);
+			}
+			
+			for (int i = 0; i < size; i++) {
+				final int text = ints.get(HEADER_INTS + 8 * size + i), hint = ints.get(HEADER_INTS + 9 * size + i);
+				builder.add(ints.get(HEADER_INTS + 3 * size + i), ints.get(HEADER_INTS + i), ints.get(HEADER_INTS + size + i),
+						text < 0 ? null : strings[text], hint < 0 ? null : strings[hint], ints.get(HEADER_INTS + 2 * size + i),
+						ints.get(HEADER_INTS + 4 * size + i), ints.get(HEADER_INTS + 5 * size + i),
+						ints.get(HEADER_INTS + 6 * size + i), ints.get(HEADER_INTS + 7 * size + i));
+			}
+			
+			return new SnapshotFile(builder.build(), labelIndex < 0 ? null : strings[labelIndex], activityWindow);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Truncated view snapshot.");
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Corrupt view snapshot: " + e.getMessage());
+		}
+	}
+}
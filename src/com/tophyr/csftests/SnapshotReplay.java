@@ -0,0 +1,308 @@
+package com.tophyr.csftests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs finder queries against a {@link SnapshotFile} on a plain JVM, for working out why a query failed on a device
+ * without going back to the device.
+ *
+ * Queries are built like FindViewResults, with the same names and from the same {@link NodeStage}s, only with type names
+ * in place of classes and nodes in place of views:
+ *
+ * <pre>
+ * SnapshotReplay replay = SnapshotReplay.load(new File("LoginTest.testSignIn.csfh"));
+ * int[] fields = replay.toRightOf(replay.any(replay.exactText("Password")), replay.isEditText(replay.all())).getNodes();
+ * </pre>
+ */
+final class SnapshotReplay {
+	
+	/** The replay counterpart of a FindViewResult. */
+	final class Query {
+		private final int[] m_Candidates;
+		private final String m_Source;
+		private final List<NodeStage> m_Stages;
+		private int[] m_Nodes;
+		private QueryPlan m_Plan;
+		
+		/** @param candidates the nodes to consider, in order, or null for every node */
+		private Query(int[] candidates, String source) {
+			m_Candidates = candidates;
+			m_Source = source;
+			m_Stages = new ArrayList<NodeStage>();
+		}
+		
+		private Query filter(NodeStage stage) {
+			m_Stages.add(stage);
+			m_Nodes = null;
+			return this;
+		}
+		
+		int[] getNodes() {
+			if (m_Nodes == null) {
+				List<NodePredicate> chain = new ArrayList<NodePredicate>(m_Stages.size());
+				for (NodeStage stage : m_Stages)
+					chain.add(stage.predicate);
+				m_Plan = QueryPlan.prepare(nodes, chain, m_Stages);
+				if (m_Plan == null)
+					throw new IllegalStateException("Query can't be answered from a snapshot: " + getDescription());
+				m_Nodes = m_Plan.evaluate(m_Candidates, Integer.MAX_VALUE, null);
+			}
+			return m_Nodes;
+		}
+		
+		/** Like FindViewResult's, the order the stages ran in and how many nodes each one saw and let through. */
+		String explain() {
+			getNodes();
+			return m_Plan.explain();
+		}
+		
+		String getDescription() {
+			String description = m_Source;
+			for (NodeStage stage : m_Stages)
+				description = stage.describe(description);
+			return description;
+		}
+		
+		@Override
+		public String toString() {
+			return getDescription();
+		}
+	}
+	
+	/** The replay counterpart of a CombinationMatch. */
+	final class Combination extends NodeCombination.Source {
+		private final Query m_Source;
+		private final boolean m_MatchAll;
+		private final int m_MinMatches, m_MaxMatches;
+		
+		private Combination(Query source, boolean matchAll, int min, int max) {
+			m_Source = source;
+			m_MatchAll = matchAll;
+			m_MinMatches = min;
+			m_MaxMatches = max;
+		}
+		
+		@Override
+		NodeCombination resolve(HierarchyNodes nodes) {
+			final int[] potentials = m_Source.getNodes();
+			if (potentials.length == 0)
+				throw new IllegalArgumentException("No potential matches.");
+			return new NodeCombination(nodes, potentials, m_MatchAll ? potentials.length : m_MinMatches, m_MaxMatches);
+		}
+		
+		@Override
+		public String toString() {
+			final int potentials = m_Source.getNodes().length;
+			return NodeStage.describeCombination(m_MatchAll ? potentials : m_MinMatches, m_MaxMatches, potentials, m_Source.getDescription());
+		}
+	}
+	
+	final HierarchyNodes nodes;
+	final String label;
+	private final int m_ActivityWindow;
+	
+	SnapshotReplay(SnapshotFile file) {
+		nodes = file.nodes;
+		label = file.label;
+		m_ActivityWindow = file.activityWindow;
+	}
+	
+	static SnapshotReplay load(File file) throws IOException {
+		return new SnapshotReplay(SnapshotFile.read(file));
+	}
+	
+	Query all() {
+		return new Query(null, "views");
+	}
+	
+	Query withId(int id) {
+		return withIds(id);
+	}
+	
+	/** Like withIds, the node getView would find for each id, in the order given. */
+	Query withIds(int... ids) {
+		if (ids.length == 0)
+			throw new IllegalArgumentException("Tried to search on an empty id list.");
+		
+		int[] found = new int[ids.length];
+		int count = 0;
+		StringBuilder description = new StringBuilder(ids.length > 1 ? "with ids " : "with id ");
+		for (int i = 0; i < ids.length; i++) {
+			final int node = nodes.findId(ids[i], m_ActivityWindow);
+			if (node >= 0)
+				found[count++] = node;
+			if (i > 0)
+				description.append(", ");
+			description.append(ids[i]);
+		}
+		
+		int[] candidates = new int[count];
+		System.arraycopy(found, 0, candidates, 0, count);
+		return new Query(candidates, description.toString());
+	}
+	
+	Query exactText(String text) {
+		return literalText(LiteralText.EXACT, text, false);
+	}
+	
+	Query exactText(String text, boolean includeHint) {
+		return literalText(LiteralText.EXACT, text, includeHint);
+	}
+	
+	/** The same search as {@link #exactText}, as on the device. */
+	Query containsText(String text) {
+		return exactText(text);
+	}
+	
+	Query containsText(String text, boolean includeHint) {
+		return exactText(text, includeHint);
+	}
+	
+	Query containsSubstring(String substring) {
+		return literalText(LiteralText.CONTAINS, substring, false);
+	}
+	
+	Query containsSubstring(String substring, boolean includeHint) {
+		return literalText(LiteralText.CONTAINS, substring, includeHint);
+	}
+	
+	Query startsWithText(String text) {
+		return literalText(LiteralText.PREFIX, text, false);
+	}
+	
+	Query startsWithText(String text, boolean includeHint) {
+		return literalText(LiteralText.PREFIX, text, includeHint);
+	}
+	
+	private Query literalText(LiteralText mode, String literal, boolean includeHint) {
+		if (literal == null)
+			throw new IllegalArgumentException("Tried to search on null text.");
+		
+		// the index only narrows the candidates; the filter still checks each one
+		return isTextView(new Query(nodes.findText(mode, literal, includeHint), "views")).filter(NodeStage.literalText(mode, literal, includeHint));
+	}
+	
+	Query matchesRegex(String regex, boolean includeHint) {
+		return isTextView(all()).filter(NodeStage.matchesRegex(Pattern.compile(regex), includeHint));
+	}
+	
+	Query isTextView(Query in) {
+		return isType(in, "android.widget.TextView");
+	}
+	
+	Query isEditText(Query in) {
+		return isType(in, "android.widget.EditText");
+	}
+	
+	Query isButton(Query in) {
+		return isType(in, "android.widget.Button");
+	}
+	
+	Query isType(Query in, String typeName) {
+		return in.filter(NodeStage.isA(typeName));
+	}
+	
+	Query coveredBy(Combination covers, Query result) {
+		return result.filter(NodeStage.covering(covers, false));
+	}
+	
+	Query covers(Combination under, Query result) {
+		return result.filter(NodeStage.covering(under, true));
+	}
+	
+	Query toLeftOf(Combination anchor, Query result) {
+		return result.filter(NodeStage.toLeftOf(anchor));
+	}
+	
+	Query toRightOf(Combination anchor, Query result) {
+		return result.filter(NodeStage.toRightOf(anchor));
+	}
+	
+	Query above(Combination anchor, Query result) {
+		return result.filter(NodeStage.above(anchor));
+	}
+	
+	Query below(Combination anchor, Query result) {
+		return result.filter(NodeStage.below(anchor));
+	}
+	
+	Combination all(Query result) {
+		return new Combination(result, true, 1, Integer.MAX_VALUE);
+	}
+	
+	Combination any(Query result) {
+		return new Combination(result, false, 1, Integer.MAX_VALUE);
+	}
+	
+	/** @return one line about node: its number, class, id, text, hint, visibility and screen rect */
+	String describe(int node) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(node).append(' ').append(nodes.classOf(node).name);
+		if (nodes.id[node] != HierarchyNodes.NO_ID)
+			sb.append(" id=0x").append(Integer.toHexString(nodes.id[node]));
+		if (nodes.text[node] != null)
+			sb.append(" text='").append(nodes.text[node]).append('\'');
+		if (nodes.hint[node] != null)
+			sb.append(" hint='").append(nodes.hint[node]).append('\'');
+		if (nodes.visibility[node] != HierarchyNodes.VISIBLE)
+			sb.append(" visibility=").append(nodes.visibility[node]);
+		final RectTable rects = nodes.rects;
+		sb.append(String.format(" [%d,%d][%d,%d]", rects.left[node], rects.top[node], rects.right[node], rects.bottom[node]));
+		return sb.toString();
+	}
+	
+	/** @return every node, one per line, indented by depth; the activity's own window is marked */
+	String dump() {
+		StringBuilder sb = new StringBuilder();
+		final int[] depth = new int[nodes.size];
+		for (int node = 0; node < nodes.size; node++) {
+			depth[node] = nodes.parent[node] < 0 ? 0 : depth[nodes.parent[node]] + 1;
+			for (int i = 0; i < depth[node]; i++)
+				sb.append("  ");
+			sb.append(describe(node));
+			if (node == m_ActivityWindow)
+				sb.append(" (activity window)");
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1 && args.length != 3) {
+			System.err.println("usage: SnapshotReplay <snapshot file>                         print the whole hierarchy");
+			System.err.println("       SnapshotReplay <snapshot file> id|text|substring|regex <value>");
+			System.err.println("                                                              print the views getView, containsText, containsSubstring or matchesRegex finds");
+			System.exit(2);
+		}
+		
+		final SnapshotReplay replay = load(new File(args[0]));
+		if (args.length == 1) {
+			if (replay.label != null)
+				System.out.println("# " + replay.label);
+			System.out.print(replay.dump());
+			return;
+		}
+		
+		final Query query;
+		if (args[1].equals("id"))
+			query = replay.withId(Integer.decode(args[2]));
+		else if (args[1].equals("text"))
+			query = replay.containsText(args[2], true);
+		else if (args[1].equals("substring"))
+			query = replay.containsSubstring(args[2], true);
+		else if (args[1].equals("regex"))
+			query = replay.matchesRegex(args[2], true);
+		else
+			throw new IllegalArgumentException("Unknown query " + args[1]);
+		
+		final int[] found = query.getNodes();
+		System.out.println(String.format("# %d %s", found.length, query.getDescription()));
+		System.out.println("# " + query.explain().replace("\n", "\n# "));
+		for (int node : found)
+			System.out.println(replay.describe(node));
+	}
+}
@@ -0,0 +1,154 @@
+package com.tophyr.csftests;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Answers {@link LiteralText} searches over a fixed set of texts without comparing against each one.
+ * 
+ * Exact lookups go through a hash map, prefixes through a sorted copy of the texts, and substrings through a single
+ * search of every text joined with a separator that can't appear in a search. Results are the item numbers the texts
+ * were given with, in ascending order.
+ */
+final class TextIndex {
+	
+	private static final char SEPARATOR = '\0';
+	private static final int[] NONE = new int[0];
+	
+	private final int[] m_Items;
+	private final String[] m_Texts;
+	
+	private final HashMap<String, int[]> m_Exact;
+	
+	private final String[] m_Sorted;
+	private final int[] m_SortedItems;
+	
+	// m_Texts[i] starts at m_Joined[m_Starts[i]]
+	private final String m_Joined;
+	private final int[] m_Starts;
+	
+	/** @param texts the text of each item; null for items that have none */
+	TextIndex(String[] texts) {
+		int count = 0;
+		for (String text : texts)
+			if (text != null)
+				count++;
+		
+		m_Items = new int[count];
+		m_Texts = new String[count];
+		m_Starts = new int[count];
+		m_Exact = new HashMap<String, int[]>(count * 2);
+		
+		StringBuilder joined = new StringBuilder();
+		for (int item = 0, i = 0; item < texts.length; item++) {
+			final String text = texts[item];
+			if (text == null)
+				continue;
+			
+			m_Items[i] = item;
+			m_Texts[i] = text;
+			m_Starts[i] = joined.length();
+			joined.append(text).append(SEPARATOR);
+			
+			int[] same = m_Exact.get(text);
+			m_Exact.put(text, same == null ? new int[] { item } : append(same, item));
+			i++;
+		}
+		m_Joined = joined.toString();
+		
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return m_Texts[a].compareTo(m_Texts[b]);
+			}
+		});
+		m_Sorted = new String[count];
+		m_SortedItems = new int[count];
+		for (int i = 0; i < count; i++) {
+			m_Sorted[i] = m_Texts[order[i]];
+			m_SortedItems[i] = m_Items[order[i]];
+		}
+	}
+	
+	private static int[] append(int[] a, int value) {
+		int[] longer = new int[a.length + 1];
+		System.arraycopy(a, 0, longer, 0, a.length);
+		longer[a.length] = value;
+		return longer;
+	}
+	
+	int[] find(LiteralText mode, String literal) {
+		switch (mode) {
+			case EXACT:
+				int[] items = m_Exact.get(literal);
+				return items == null ? NONE : items;
+			case PREFIX:
+				return findPrefix(literal);
+			default:
+				return findContaining(literal);
+		}
+	}
+	
+	private int[] findPrefix(String literal) {
+		// lower bound of the literal; everything starting with it sorts together from there
+		int lo = 0, hi = m_Sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (m_Sorted[mid].compareTo(literal) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		
+		int end = lo;
+		while (end < m_Sorted.length && m_Sorted[end].startsWith(literal))
+			end++;
+		
+		int[] items = new int[end - lo];
+		System.arraycopy(m_SortedItems, lo, items, 0, items.length);
+		Arrays.sort(items);
+		return items;
+	}
+	
+	private int[] findContaining(String literal) {
+		if (literal.indexOf(SEPARATOR) >= 0) {
+			// the joined search can't tell the separator from a text's own; texts holding one are rare, so check each
+			int[] found = NONE;
+			for (int i = 0; i < m_Texts.length; i++)
+				if (m_Texts[i].indexOf(literal) >= 0)
+					found = append(found, m_Items[i]);
+			return found;
+		}
+		
+		int[] items = new int[8];
+		int count = 0;
+		
+		int from = 0;
+		while (from < m_Joined.length()) {
+			final int pos = m_Joined.indexOf(literal, from);
+			if (pos < 0)
+				break;
+			
+			// the text the match landed in; a match can't span the separator, so it's entirely inside
+			int i = Arrays.binarySearch(m_Starts, pos);
+			if (i < 0)
+				i = -i - 2;
+			
+			if (count == items.length) {
+				int[] bigger = new int[items.length * 2];
+				System.arraycopy(items, 0, bigger, 0, count);
+				items = bigger;
+			}
+			items[count++] = m_Items[i];
+			
+			from = i + 1 < m_Starts.length ? m_Starts[i + 1] : m_Joined.length();
+		}
+		
+		int[] result = new int[count];
+		System.arraycopy(items, 0, result, 0, count);
+		return result;
+	}
+}
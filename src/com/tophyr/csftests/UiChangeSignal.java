@@ -0,0 +1,169 @@
+package com.tophyr.csftests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+final class UiChangeSignal {
+	
+	// one per window, so a change can be told apart from changes to the other windows
+	private final class RootListener implements ViewTreeObserver.OnGlobalLayoutListener, ViewTreeObserver.OnPreDrawListener, 
+			ViewTreeObserver.OnScrollChangedListener {
+		
+		final View root;
+		// the generations of the window's last layout or scroll, and of its last draw
+		int laidOut, drawn;
+		
+		RootListener(View root, int generation) {
+			this.root = root;
+			laidOut = drawn = generation;
+		}
+		
+		@Override
+		public void onGlobalLayout() {
+			signal(this, true);
+		}
+		
+		@Override
+		public boolean onPreDraw() {
+			signal(this, false);
+			return true;
+		}
+		
+		// scrolling moves views on screen without laying anything out
+		@Override
+		public void onScrollChanged() {
+			signal(this, true);
+		}
+	}
+	
+	private final Instrumentation m_Instrumentation;
+	private final boolean m_IncludeDraws;
+	private List<View> m_Roots;
+	private List<RootListener> m_Listeners;
+	private int m_Generation;
+	
+	public UiChangeSignal(Instrumentation instrumentation, boolean includeDraws) {
+		m_Instrumentation = instrumentation;
+		m_IncludeDraws = includeDraws;
+		m_Roots = Collections.emptyList();
+		m_Listeners = Collections.emptyList();
+		m_Generation = 0;
+	}
+	
+	private synchronized void signal(RootListener listener, boolean layout) {
+		m_Generation++;
+		if (layout)
+			listener.laidOut = m_Generation;
+		else
+			listener.drawn = m_Generation;
+		notifyAll();
+	}
+	
+	public synchronized int getGeneration() {
+		return m_Generation;
+	}
+	
+	/** @return how much root has changed since generation, as far as this signal has seen */
+	public synchronized ViewSnapshot.RootChange changeSince(View root, int generation) {
+		for (RootListener listener : m_Listeners) {
+			if (listener.root != root)
+				continue;
+			if (listener.laidOut > generation)
+				return ViewSnapshot.RootChange.LAID_OUT;
+			// without listening to draws, there's no telling it hasn't redrawn
+			if (!m_IncludeDraws || listener.drawn > generation)
+				return ViewSnapshot.RootChange.REDRAWN;
+			return ViewSnapshot.RootChange.NONE;
+		}
+		return ViewSnapshot.RootChange.LAID_OUT;
+	}
+	
+	public synchronized boolean awaitChange(int seenGeneration, long timeout) {
+		final long millisGoal = SystemClock.uptimeMillis() + timeout;
+		while (m_Generation == seenGeneration && timeout > 0) {
+			try {
+				wait(timeout);
+			} catch (InterruptedException e) {
+				// fall through and recompute the remaining time
+			}
+			timeout = millisGoal - SystemClock.uptimeMillis();
+		}
+		return m_Generation != seenGeneration;
+	}
+	
+	// listeners are only ever touched from the main thread, since older ViewTreeObservers aren't thread-safe
+	public void attach(final List<View> roots) {
+		if (roots.equals(m_Roots))
+			return;
+		
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				// windows still there keep their listeners, and with them what's been seen of them
+				ArrayList<RootListener> listeners = new ArrayList<RootListener>(roots.size());
+				for (View root : roots) {
+					RootListener listener = null;
+					for (RootListener l : m_Listeners)
+						if (l.root == root)
+							listener = l;
+					if (listener == null) {
+						listener = new RootListener(root, newWindow());
+						addListener(listener);
+					}
+					listeners.add(listener);
+				}
+				for (RootListener l : m_Listeners)
+					if (!listeners.contains(l))
+						removeListener(l);
+				
+				synchronized (UiChangeSignal.this) {
+					m_Listeners = listeners;
+				}
+				m_Roots = roots;
+			}
+		});
+	}
+	
+	// a window we weren't listening to could have changed any time before now
+	private synchronized int newWindow() {
+		return ++m_Generation;
+	}
+	
+	public void detach() {
+		m_Instrumentation.runOnMainSync(new Runnable() {
+			@Override
+			public void run() {
+				for (RootListener l : m_Listeners)
+					removeListener(l);
+				synchronized (UiChangeSignal.this) {
+					m_Listeners = Collections.emptyList();
+				}
+				m_Roots = Collections.emptyList();
+			}
+		});
+	}
+	
+	private void addListener(RootListener listener) {
+		ViewTreeObserver vto = listener.root.getViewTreeObserver();
+		vto.addOnGlobalLayoutListener(listener);
+		vto.addOnScrollChangedListener(listener);
+		if (m_IncludeDraws)
+			vto.addOnPreDrawListener(listener);
+	}
+	
+	private void removeListener(RootListener listener) {
+		ViewTreeObserver vto = listener.root.getViewTreeObserver();
+		if (!vto.isAlive())
+			return;
+		vto.removeGlobalOnLayoutListener(listener);
+		vto.removeOnScrollChangedListener(listener);
+		if (m_IncludeDraws)
+			vto.removeOnPreDrawListener(listener);
+	}
+}
@@ -0,0 +1,368 @@
+package com.tophyr.csftests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import android.app.Activity;
+import android.graphics.Matrix;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * The top window roots of an activity, topmost first, walked in pre-order and copied into {@link HierarchyNodes} on the
+ * main thread.
+ *
+ * Node i of {@link #nodes} describes {@link #views}.get(i) as it was when the snapshot was taken, so queries can run
+ * against the copy from any thread while the UI carries on. It should be replaced whenever the hierarchy lays out
+ * or redraws again.
+ *
+ * Nothing says which views a layout or a draw touched (not on API 8, and not to a listener that isn't the app's own),
+ * only which window it happened in, so each capture is told how much each root has changed ({@link RootChange}) since
+ * the last snapshot. A window that hasn't changed at all is copied from it without touching a view. One that has only
+ * redrawn can't have had views added, removed or moved, so only what a draw can change is read again. The rest are
+ * walked against the last snapshot: views still in the same place keep their class from it, and whatever didn't change
+ * keeps the indexes built over it, so a poll that finds nothing new gets the last snapshot back, indexes and all.
+ */
+final class ViewSnapshot {
+	
+	/** How much a window root has changed since the snapshot a capture starts from. */
+	enum RootChange {
+		/** not at all */
+		NONE,
+		/** redrawn, with no layout or scroll */
+		REDRAWN,
+		/** laid out or scrolled, or there's no telling */
+		LAID_OUT
+	}
+	
+	final int generation;
+	final Activity activity;
+	final List<View> roots;
+	final List<View> views;
+	final HierarchyNodes nodes;
+	/** How many nodes were carried over unchanged from the snapshot this one was captured against. */
+	final int unchanged;
+	
+	// the class numbering of nodes, which the next capture starts from
+	private final IdentityHashMap<Class<?>, Integer> m_Classes;
+	// each view's frame(), to tell whether it has moved without measuring it on screen again
+	private final int[] m_Frames;
+	private IdentityHashMap<View, Integer> m_Indices;
+	
+	private ViewSnapshot(int generation, Activity activity, List<View> roots, List<View> views, HierarchyNodes nodes, 
+			IdentityHashMap<Class<?>, Integer> classes, int[] frames, int unchanged) {
+		this.generation = generation;
+		this.activity = activity;
+		this.roots = roots;
+		this.views = views;
+		this.nodes = nodes;
+		this.unchanged = unchanged;
+		m_Classes = classes;
+		m_Frames = frames;
+	}
+	
+	/**
+	 * Must be called on the main thread.
+	 * 
+	 * @param previous the last snapshot taken, or null
+	 * @param changes how much each of roots has changed since previous, or null to walk them all
+	 * @return previous itself if nothing in it has changed
+	 */
+	static ViewSnapshot capture(int generation, Activity activity, List<View> roots, ViewSnapshot previous, RootChange[] changes) {
+		Capture capture = new Capture(previous);
+		for (int i = 0; i < roots.size(); i++) {
+			final View root = roots.get(i);
+			final int was = previous == null || changes == null || changes[i] == RootChange.LAID_OUT ? -1 : previous.rootNode(root);
+			if (was < 0)
+				capture.walkTree(root, -1);
+			else if (changes[i] == RootChange.NONE)
+				capture.copy(was, previous.nodes.subtreeEnd(was));
+			else if (!capture.recheck(was, previous.nodes.subtreeEnd(was)))
+				capture.walkTree(root, -1);
+		}
+		return capture.finish(generation, activity, roots);
+	}
+	
+	// the node root was captured as, or -1 if it wasn't one of this snapshot's roots
+	private int rootNode(View root) {
+		int node = 0;
+		for (View r : roots) {
+			if (r == root)
+				return node;
+			node = nodes.subtreeEnd(node);
+		}
+		return -1;
+	}
+	
+	// cheap reads that change when a view moves in its parent, scrolls its children or is transformed, unlike
+	// getLocationOnScreen; translation and scale move a view on screen without a layout
+	private static int frame(View v) {
+		int frame = v.getLeft();
+		frame = frame * 31 + v.getTop();
+		frame = frame * 31 + v.getRight();
+		frame = frame * 31 + v.getBottom();
+		frame = frame * 31 + v.getScrollX();
+		frame = frame * 31 + v.getScrollY();
+		
+		final Matrix matrix = FrameworkInternals.getMatrix(v);
+		if (matrix != null && !matrix.isIdentity()) {
+			float[] values = new float[9];
+			matrix.getValues(values);
+			for (float value : values)
+				frame = frame * 31 + Float.floatToIntBits(value);
+		}
+		return frame;
+	}
+	
+	private static final class Capture {
+		final ViewSnapshot previous;
+		final ArrayList<View> views = new ArrayList<View>();
+		final HierarchyNodes.Builder nodes = new HierarchyNodes.Builder();
+		final IdentityHashMap<Class<?>, Integer> classes;
+		final int[] xy = new int[2];
+		private int[] m_Frames = new int[64];
+		
+		// compared with previous
+		boolean moved, idsChanged, rectsChanged;
+		int changed, unchanged;
+		// the nodes whose text or hint differs, in walk order
+		private int[] m_ChangedTexts = new int[8];
+		private int m_ChangedTextCount;
+		
+		Capture(ViewSnapshot previous) {
+			this.previous = previous;
+			if (previous == null) {
+				classes = new IdentityHashMap<Class<?>, Integer>();
+			} else {
+				// numbered as before, so a node's class carries over as it is
+				for (HierarchyNodes.NodeClass cls : previous.nodes.classes)
+					nodes.addClass(cls.name, cls.supertypes);
+				classes = new IdentityHashMap<Class<?>, Integer>(previous.m_Classes);
+			}
+		}
+		
+		void walkTree(View v, int parent) {
+			String text = null, hint = null;
+			if (v instanceof TextView) {
+				TextView tv = (TextView)v;
+				if (tv.getText() != null)
+					text = tv.getText().toString();
+				if (tv.getHint() != null)
+					hint = tv.getHint().toString();
+			}
+			
+			// where v was last time: usually right where it is now, in the same parent
+			int was = -1;
+			if (previous != null) {
+				final int next = nodes.size();
+				if (next < previous.views.size() && previous.views.get(next) == v && previous.nodes.parent[next] == parent) {
+					was = next;
+				} else {
+					moved = true;
+					was = previous.indexOf(v);
+				}
+			}
+			
+			v.getLocationOnScreen(xy);
+			final int node = add(v, parent, was >= 0 ? previous.nodes.classOf[was] : classIndex(v.getClass()), text, hint,
+					xy[0], xy[1], xy[0] + v.getWidth(), xy[1] + v.getHeight(), was);
+			
+			if (v instanceof ViewGroup) {
+				ViewGroup vg = (ViewGroup)v;
+				for (int i = 0; i < vg.getChildCount(); i++)
+					walkTree(vg.getChildAt(i), node);
+			}
+		}
+		
+		/** Adds previous's nodes start up to end exactly as they were, for views that haven't changed since. */
+		void copy(int start, int end) {
+			final HierarchyNodes before = previous.nodes;
+			final RectTable rects = before.rects;
+			final int offset = nodes.size() - start;
+			moved |= offset != 0;
+			for (int was = start; was < end; was++) {
+				final int node = nodes.add(before.parent[was] < 0 ? -1 : before.parent[was] + offset, before.classOf[was], before.id[was],
+						before.text[was], before.hint[was], before.visibility[was], rects.left[was], rects.top[was], rects.right[was], rects.bottom[was]);
+				views.add(previous.views.get(was));
+				setFrame(node, previous.m_Frames[was]);
+			}
+			unchanged += end - start;
+		}
+		
+		/**
+		 * Adds previous's nodes start up to end as they are now, for views that haven't moved since: their rects and
+		 * structure as they were, everything else read again.
+		 * 
+		 * @return false, having added nothing, if any of them has moved after all
+		 */
+		boolean recheck(int start, int end) {
+			for (int was = start; was < end; was++)
+				if (frame(previous.views.get(was)) != previous.m_Frames[was])
+					return false;
+			
+			final HierarchyNodes before = previous.nodes;
+			final RectTable rects = before.rects;
+			final int offset = nodes.size() - start;
+			moved |= offset != 0;
+			for (int was = start; was < end; was++) {
+				final View v = previous.views.get(was);
+				String text = before.text[was], hint = before.hint[was];
+				if (v instanceof TextView) {
+					TextView tv = (TextView)v;
+					text = current(tv.getText(), text);
+					hint = current(tv.getHint(), hint);
+				}
+				add(v, before.parent[was] < 0 ? -1 : before.parent[was] + offset, before.classOf[was], text, hint,
+						rects.left[was], rects.top[was], rects.right[was], rects.bottom[was], was);
+			}
+			return true;
+		}
+		
+		// was, unless the view's text has changed since; compared in place, so unchanged text isn't copied again
+		private static String current(CharSequence now, String was) {
+			if (now == null)
+				return null;
+			return was != null && LiteralText.EXACT.matches(now, was) ? was : now.toString();
+		}
+		
+		private int add(View v, int parent, int classIndex, String text, String hint, int left, int top, int right, int bottom, int was) {
+			final int id = v.getId(), visibility = v.getVisibility();
+			final int node = nodes.add(parent, classIndex, id, text, hint, visibility, left, top, right, bottom);
+			views.add(v);
+			setFrame(node, frame(v));
+			
+			if (was >= 0)
+				compare(node, was, id, text, hint, visibility, left, top, right, bottom);
+			else
+				changed++;
+			return node;
+		}
+		
+		private void setFrame(int node, int frame) {
+			if (node == m_Frames.length) {
+				int[] bigger = new int[m_Frames.length * 2];
+				System.arraycopy(m_Frames, 0, bigger, 0, node);
+				m_Frames = bigger;
+			}
+			m_Frames[node] = frame;
+		}
+		
+		ViewSnapshot finish(int generation, Activity activity, List<View> roots) {
+			final boolean sameStructure = previous != null && sameStructure();
+			if (sameStructure && previous.activity == activity && previous.roots.equals(roots) && changed == 0)
+				return previous;
+			
+			int[] frames = new int[nodes.size()];
+			System.arraycopy(m_Frames, 0, frames, 0, frames.length);
+			ViewSnapshot snapshot = new ViewSnapshot(generation, activity, Collections.unmodifiableList(new ArrayList<View>(roots)),
+					Collections.unmodifiableList(views), nodes.build(), classes, frames, unchanged);
+			if (sameStructure)
+				snapshot.nodes.inheritIndexes(previous.nodes, !idsChanged, changedTexts(), !rectsChanged);
+			return snapshot;
+		}
+		
+		private void compare(int node, int was, int id, String text, String hint, int visibility, int left, int top, int right, int bottom) {
+			final HierarchyNodes before = previous.nodes;
+			final RectTable rects = before.rects;
+			final boolean sameId = before.id[was] == id;
+			final boolean sameText = equal(before.text[was], text) && equal(before.hint[was], hint);
+			final boolean sameRect = rects.left[was] == left && rects.top[was] == top && rects.right[was] == right && rects.bottom[was] == bottom;
+			
+			idsChanged |= !sameId;
+			rectsChanged |= !sameRect;
+			if (!sameText) {
+				if (m_ChangedTextCount == m_ChangedTexts.length) {
+					int[] bigger = new int[m_ChangedTexts.length * 2];
+					System.arraycopy(m_ChangedTexts, 0, bigger, 0, m_ChangedTextCount);
+					m_ChangedTexts = bigger;
+				}
+				m_ChangedTexts[m_ChangedTextCount++] = node;
+			}
+			if (sameId && sameText && sameRect && before.visibility[was] == visibility)
+				unchanged++;
+			else
+				changed++;
+		}
+		
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+		
+		int[] changedTexts() {
+			int[] changed = new int[m_ChangedTextCount];
+			System.arraycopy(m_ChangedTexts, 0, changed, 0, m_ChangedTextCount);
+			return changed;
+		}
+		
+		/** @return whether every node is the same view, under the same parent, as the same node was last time */
+		boolean sameStructure() {
+			return !moved && nodes.size() == previous.nodes.size;
+		}
+		
+		private int classIndex(Class<?> cls) {
+			Integer index = classes.get(cls);
+			if (index == null) {
+				index = nodes.addClass(cls.getName(), supertypeNames(cls));
+				classes.put(cls, index);
+			}
+			return index;
+		}
+	}
+	
+	static String[] supertypeNames(Class<?> cls) {
+		ArrayList<String> names = new ArrayList<String>();
+		for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+			if (c != cls)
+				names.add(c.getName());
+			for (Class<?> i : c.getInterfaces())
+				names.add(i.getName());
+		}
+		return names.toArray(new String[names.size()]);
+	}
+	
+	/** @return the view's node number, or -1 if it isn't part of this snapshot */
+	synchronized int indexOf(View v) {
+		if (m_Indices == null) {
+			m_Indices = new IdentityHashMap<View, Integer>(views.size() * 2);
+			for (int i = 0; i < views.size(); i++)
+				m_Indices.put(views.get(i), i);
+		}
+		
+		Integer index = m_Indices.get(v);
+		return index == null ? -1 : index;
+	}
+	
+	/**
+	 * @return the node {@link Activity#findViewById} would find (the first with id in the activity's own window),
+	 *         otherwise the first with id in any window, or -1 if there isn't one
+	 */
+	int findViewById(int id) {
+		return nodes.findId(id, activityWindow());
+	}
+	
+	/** @return the root node of the activity's own window, or -1 if it isn't part of this snapshot */
+	int activityWindow() {
+		return activity == null || activity.getWindow() == null ? -1 : indexOf(activity.getWindow().peekDecorView());
+	}
+	
+	/** @return the screen rects of views, measured now; for views that aren't part of any snapshot */
+	static RectTable measure(List<? extends View> views) {
+		final int count = views.size();
+		final RectTable rects = new RectTable(count);
+		
+		int[] xy = new int[2];
+		for (int i = 0; i < count; i++) {
+			View v = views.get(i);
+			v.getLocationOnScreen(xy);
+			rects.set(i, xy[0], xy[1], xy[0] + v.getWidth(), xy[1] + v.getHeight());
+		}
+		return rects;
+	}
+	
+	boolean isCurrent(Activity activity, List<View> roots) {
+		return this.activity == activity && this.roots.equals(roots);
+	}
+}
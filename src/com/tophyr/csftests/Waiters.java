@@ -0,0 +1,59 @@
+package com.tophyr.csftests;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+/**
+ * Threads waiting for something to happen to a key (an activity, an activity class, ...), woken directly by whoever
+ * sees it happen. Every waiter on a key shares one latch, which is swapped out when it's completed.
+ */
+final class Waiters<K> {
+	
+	static abstract class Condition {
+		abstract boolean holds();
+	}
+	
+	private final ConcurrentHashMap<K, CountDownLatch> m_Latches = new ConcurrentHashMap<K, CountDownLatch>();
+	
+	/** @return whether done holds, either immediately or after being woken for key, within timeout millis */
+	boolean await(K key, long timeout, Condition done) {
+		if (done.holds())
+			return true;
+		
+		CountDownLatch latch = new CountDownLatch(1);
+		CountDownLatch existing = m_Latches.putIfAbsent(key, latch);
+		if (existing != null)
+			latch = existing;
+		
+		// it may have happened between the first check and registering the latch
+		if (done.holds())
+			return true;
+		
+		final long millisGoal = SystemClock.uptimeMillis() + timeout;
+		while (timeout > 0) {
+			try {
+				latch.await(timeout, TimeUnit.MILLISECONDS);
+				break;
+			} catch (InterruptedException e) {
+				timeout = millisGoal - SystemClock.uptimeMillis();
+			}
+		}
+		
+		return done.holds();
+	}
+	
+	void complete(K key) {
+		CountDownLatch latch = m_Latches.remove(key);
+		if (latch != null)
+			latch.countDown();
+	}
+	
+	// wakes everyone, who will see their condition doesn't hold (unless it does) and give up
+	void releaseAll() {
+		for (K key : m_Latches.keySet())
+			complete(key);
+	}
+}
@@ -0,0 +1,284 @@
+package com.tophyr.csftests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Splits a suite of CSFActivityTestCase tests across several devices so each shard takes about as long, using the
+ * durations recorded in a {@link TestDurations} history.
+ *
+ * Runs on the host, not the device:
+ * 
+ * <pre>
+ * java -cp tools/bin/classes com.tophyr.csftests.ShardPlanner record durations.tsv logcat.txt
+ * java -cp tools/bin/classes:android.jar:... com.tophyr.csftests.ShardPlanner plan durations.tsv 4 shards.tsv bin/classes
+ * adb push shards.tsv /data/local/tmp/
+ * </pre>
+ * 
+ * record adds the durations logged by a run (`adb logcat -d -s CSFStats`) to the history. plan discovers the tests in
+ * the given class directories or jars, writes which shard each one runs in to a {@link ShardPlan} file and prints one
+ * line per shard: the arguments that make CSFTestRunner run just that shard from the plan once it's been
+ * pushed. The tests are loaded from those directories and jars; whatever else they need to load (android.jar,
+ * Robotium, the csftests library if it isn't one of them) goes on -cp.
+ */
+final class ShardPlanner {
+	
+	private static final String TEST_CASE_CLASS = "com.tophyr.csftests.CSFActivityTestCase";
+	
+	// for tests with no history at all, when there's no other history to go by either
+	private static final long DEFAULT_ESTIMATE = 10000;
+	
+	// where plans are pushed to; readable by the test package, unlike the sdcard on every device
+	static final String DEVICE_PLAN_DIR = "/data/local/tmp/";
+	
+	/** One device's share of the suite. */
+	static final class Shard {
+		final int index;
+		final List<String> tests = new ArrayList<String>();
+		long estimatedMillis;
+		
+		Shard(int index) {
+			this.index = index;
+		}
+		
+		/**
+		 * @return the instrumentation arguments (for `adb shell am instrument`) that run exactly this shard, given the
+		 *         plan it's part of at devicePlanPath
+		 */
+		String toRunnerArgument(String devicePlanPath) {
+			return String.format("-e %s %s -e %s %d", ShardPlan.PLAN_ARGUMENT, devicePlanPath, ShardPlan.INDEX_ARGUMENT, index);
+		}
+	}
+	
+	private ShardPlanner() {
+	}
+	
+	/**
+	 * Longest processing time first: hand out tests from longest to shortest, each to the shard with the least work so
+	 * far. Tests without history are assumed to take the median of those with it. The result only depends on the
+	 * tests and the history, not the order the tests were given in, so every device computes the same plan.
+	 */
+	static List<Shard> plan(Collection<String> tests, final TestDurations history, int shardCount) {
+		if (shardCount < 1)
+			throw new IllegalArgumentException("Need at least one shard.");
+		
+		final long unknown = history.medianEstimate(DEFAULT_ESTIMATE);
+		List<String> byDuration = new ArrayList<String>(tests);
+		Collections.sort(byDuration, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				final long da = estimate(history, a, unknown), db = estimate(history, b, unknown);
+				if (da != db)
+					return da > db ? -1 : 1;
+				return a.compareTo(b);
+			}
+		});
+		
+		List<Shard> shards = new ArrayList<Shard>(shardCount);
+		PriorityQueue<Shard> leastLoaded = new PriorityQueue<Shard>(shardCount, new Comparator<Shard>() {
+			@Override
+			public int compare(Shard a, Shard b) {
+				if (a.estimatedMillis != b.estimatedMillis)
+					return a.estimatedMillis < b.estimatedMillis ? -1 : 1;
+				return a.index - b.index;
+			}
+		});
+		for (int i = 0; i < shardCount; i++) {
+			Shard shard = new Shard(i);
+			shards.add(shard);
+			leastLoaded.add(shard);
+		}
+		
+		for (String test : byDuration) {
+			Shard shard = leastLoaded.poll();
+			shard.tests.add(test);
+			shard.estimatedMillis += estimate(history, test, unknown);
+			leastLoaded.add(shard);
+		}
+		
+		// run each shard's tests in a stable order, grouped by class
+		for (Shard shard : shards)
+			Collections.sort(shard.tests);
+		return shards;
+	}
+	
+	static ShardPlan toPlan(List<Shard> shards) {
+		ShardPlan plan = new ShardPlan();
+		for (Shard shard : shards)
+			for (String test : shard.tests)
+				plan.add(shard.index, test);
+		return plan;
+	}
+	
+	private static long estimate(TestDurations history, String test, long unknown) {
+		final long estimate = history.estimate(test);
+		return estimate < 0 ? unknown : estimate;
+	}
+	
+	/**
+	 * @return "class#method" for every test method of the concrete CSFActivityTestCase subclasses among classNames,
+	 *         sorted
+	 * @throws ClassNotFoundException naming every class that couldn't be loaded, rather than leaving its tests out of
+	 *         every shard
+	 */
+	static List<String> discover(ClassLoader loader, Collection<String> classNames) throws ClassNotFoundException {
+		List<String> tests = new ArrayList<String>();
+		List<String> unloadable = new ArrayList<String>();
+		for (String className : classNames) {
+			try {
+				Class<?> cls = Class.forName(className, false, loader);
+				if (!isTestCase(cls))
+					continue;
+				
+				// JUnit 3 conventions, which InstrumentationTestRunner follows
+				for (Method m : cls.getMethods()) {
+					if (m.getName().startsWith("test") && m.getParameterTypes().length == 0 && m.getReturnType() == void.class &&
+						!Modifier.isStatic(m.getModifiers()))
+						tests.add(cls.getName() + "#" + m.getName());
+				}
+			} catch (ClassNotFoundException e) {
+				unloadable.add(className + " (not found)");
+			} catch (LinkageError e) {
+				unloadable.add(className + " (" + e + ")");
+			}
+		}
+		if (!unloadable.isEmpty()) {
+			StringBuilder msg = new StringBuilder(String.format("Couldn't load %d classes; is everything they need on the class path?", unloadable.size()));
+			for (String c : unloadable)
+				msg.append("\n  ").append(c);
+			throw new ClassNotFoundException(msg.toString());
+		}
+		Collections.sort(tests);
+		return tests;
+	}
+	
+	/** @return a class loader for the given class directories and jars, on top of the planner's own class path */
+	static ClassLoader classLoaderFor(List<File> locations) throws MalformedURLException {
+		URL[] urls = new URL[locations.size()];
+		for (int i = 0; i < urls.length; i++)
+			urls[i] = locations.get(i).toURI().toURL();
+		return new URLClassLoader(urls, ShardPlanner.class.getClassLoader());
+	}
+	
+	// by name, so the planner doesn't need to load the test case class (and all of Android) itself
+	private static boolean isTestCase(Class<?> cls) {
+		if (Modifier.isAbstract(cls.getModifiers()) || !Modifier.isPublic(cls.getModifiers()))
+			return false;
+		for (Class<?> c = cls.getSuperclass(); c != null; c = c.getSuperclass())
+			if (c.getName().equals(TEST_CASE_CLASS))
+				return true;
+		return false;
+	}
+	
+	/** @return the names of the top-level classes in a class directory or jar */
+	static List<String> classNamesIn(File location) throws IOException {
+		if (!location.exists())
+			throw new FileNotFoundException(location.getPath());
+		
+		List<String> names = new ArrayList<String>();
+		if (location.isDirectory()) {
+			collectClassNames(location, "", names);
+		} else {
+			ZipFile jar = new ZipFile(location);
+			try {
+				Enumeration<? extends ZipEntry> entries = jar.entries();
+				while (entries.hasMoreElements())
+					addClassName(entries.nextElement().getName(), names);
+			} finally {
+				jar.close();
+			}
+		}
+		return names;
+	}
+	
+	private static void collectClassNames(File dir, String prefix, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files) {
+			if (f.isDirectory())
+				collectClassNames(f, prefix + f.getName() + "/", names);
+			else
+				addClassName(prefix + f.getName(), names);
+		}
+	}
+	
+	private static void addClassName(String path, List<String> names) {
+		if (path.endsWith(".class") && path.indexOf('$') < 0)
+			names.add(path.substring(0, path.length() - ".class".length()).replace('/', '.'));
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 3 && args[0].equals("record")) {
+			final File historyFile = new File(args[1]);
+			TestDurations history = TestDurations.read(historyFile);
+			int recorded = 0;
+			for (int i = 2; i < args.length; i++) {
+				BufferedReader logcat = new BufferedReader(new InputStreamReader(new FileInputStream(args[i]), "UTF-8"));
+				try {
+					recorded += history.recordLogcat(logcat);
+				} finally {
+					logcat.close();
+				}
+			}
+			history.write(historyFile);
+			System.err.println(String.format("Recorded %d durations; %d tests in history.", recorded, history.size()));
+		} else if (args.length >= 5 && args[0].equals("plan")) {
+			TestDurations history = TestDurations.read(new File(args[1]));
+			final File planFile = new File(args[3]);
+			List<File> locations = new ArrayList<File>();
+			List<String> classNames = new ArrayList<String>();
+			for (int i = 4; i < args.length; i++) {
+				locations.add(new File(args[i]));
+				classNames.addAll(classNamesIn(locations.get(locations.size() - 1)));
+			}
+			
+			List<String> tests;
+			try {
+				tests = discover(classLoaderFor(locations), classNames);
+			} catch (ClassNotFoundException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+				return;
+			}
+			final List<Shard> shards = plan(tests, history, Integer.parseInt(args[2]));
+			Writer out = new OutputStreamWriter(new FileOutputStream(planFile), "UTF-8");
+			try {
+				toPlan(shards).write(out);
+			} finally {
+				out.close();
+			}
+			
+			System.err.println(String.format("Wrote %s; push it to %s before running a shard.", planFile, DEVICE_PLAN_DIR));
+			for (Shard shard : shards) {
+				System.err.println(String.format("shard %d: %d tests, about %.1fs", shard.index, shard.tests.size(), shard.estimatedMillis / 1000.0));
+				System.out.println(shard.toRunnerArgument(DEVICE_PLAN_DIR + planFile.getName()));
+			}
+		} else {
+			System.err.println("usage: ShardPlanner record <history file> <logcat file>...");
+			System.err.println("       ShardPlanner plan <history file> <shard count> <plan file> <class dir or jar>...");
+			System.exit(2);
+		}
+	}
+}
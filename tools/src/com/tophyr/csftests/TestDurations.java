@@ -0,0 +1,132 @@
+package com.tophyr.csftests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * How long each test has taken in previous runs, kept in a small tab-separated history file: one line per test of
+ * "class#method", its estimated duration in milliseconds and how many runs that estimate is based on.
+ *
+ * Estimates are a moving average weighted toward recent runs, so a test that gets slower or faster is picked up within
+ * a few runs without one odd run throwing it off.
+ */
+final class TestDurations {
+	
+	// how much a new run counts against the history
+	private static final double RECENT_WEIGHT = 0.3;
+	
+	// the per-test line CSFActivityTestCase logs under the CSFStats tag as each test tears down
+	private static final Pattern STATS_LINE = Pattern.compile("\\{\"name\":\"((?:[^\"\\\\]|\\\\.)*)\".*\"durationMs\":(\\d+)");
+	
+	private static final class Entry {
+		double millis;
+		int runs;
+	}
+	
+	private final TreeMap<String, Entry> m_Entries = new TreeMap<String, Entry>();
+	
+	/** @return the history in file, or an empty one if it doesn't exist yet */
+	static TestDurations read(File file) throws IOException {
+		TestDurations durations = new TestDurations();
+		if (!file.exists())
+			return durations;
+		
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] fields = line.split("\t");
+				if (fields.length != 3)
+					throw new IOException("Malformed duration history line: " + line);
+				
+				Entry entry = new Entry();
+				entry.millis = Double.parseDouble(fields[1]);
+				entry.runs = Integer.parseInt(fields[2]);
+				durations.m_Entries.put(fields[0], entry);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed duration history: " + e.getMessage());
+		} finally {
+			in.close();
+		}
+		return durations;
+	}
+	
+	void write(File file) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write("# test\testimated ms\truns\n");
+			for (Map.Entry<String, Entry> e : m_Entries.entrySet())
+				out.write(String.format("%s\t%d\t%d\n", e.getKey(), Math.round(e.getValue().millis), e.getValue().runs));
+		} finally {
+			out.close();
+		}
+	}
+	
+	void record(String test, long millis) {
+		Entry entry = m_Entries.get(test);
+		if (entry == null) {
+			entry = new Entry();
+			entry.millis = millis;
+			m_Entries.put(test, entry);
+		} else {
+			entry.millis = entry.millis * (1 - RECENT_WEIGHT) + millis * RECENT_WEIGHT;
+		}
+		entry.runs++;
+	}
+	
+	/**
+	 * Records every test duration in a logcat dump of a run (e.g. `adb logcat -d -s CSFStats`).
+	 * 
+	 * @return how many durations were recorded
+	 */
+	int recordLogcat(BufferedReader logcat) throws IOException {
+		int recorded = 0;
+		String line;
+		while ((line = logcat.readLine()) != null) {
+			Matcher m = STATS_LINE.matcher(line);
+			if (!m.find() || m.group(1).equals("run"))
+				continue;
+			record(m.group(1).replace("\\\"", "\"").replace("\\\\", "\\"), Long.parseLong(m.group(2)));
+			recorded++;
+		}
+		return recorded;
+	}
+	
+	/** @return the test's estimated duration in milliseconds, or -1 if it has never been recorded */
+	long estimate(String test) {
+		Entry entry = m_Entries.get(test);
+		return entry == null ? -1 : Math.round(entry.millis);
+	}
+	
+	/** @return the median of every recorded estimate, or fallback if there are none */
+	long medianEstimate(long fallback) {
+		if (m_Entries.isEmpty())
+			return fallback;
+		
+		List<Double> millis = new ArrayList<Double>(m_Entries.size());
+		for (Entry entry : m_Entries.values())
+			millis.add(entry.millis);
+		Collections.sort(millis);
+		return Math.round(millis.get(millis.size() / 2));
+	}
+	
+	int size() {
+		return m_Entries.size();
+	}
+}
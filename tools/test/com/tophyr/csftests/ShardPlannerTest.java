@@ -0,0 +1,177 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.tophyr.csftests.ShardPlanner.Shard;
+
+public class ShardPlannerTest {
+	
+	private static TestDurations history(Object... testsAndMillis) {
+		TestDurations history = new TestDurations();
+		for (int i = 0; i < testsAndMillis.length; i += 2)
+			history.record((String)testsAndMillis[i], ((Number)testsAndMillis[i + 1]).longValue());
+		return history;
+	}
+	
+	@Test
+	public void plansLongestFirstOntoLeastLoadedShard() {
+		TestDurations history = history("A#a", 7000, "A#b", 6000, "A#c", 5000, "A#d", 4000, "A#e", 3000, "A#f", 2000);
+		List<Shard> shards = ShardPlanner.plan(Arrays.asList("A#a", "A#b", "A#c", "A#d", "A#e", "A#f"), history, 2);
+		
+		// 7 and 6 start the shards, 5 joins 6, 4 joins 7, 3 breaks the 11-11 tie toward shard 0, 2 goes to shard 1
+		assertEquals(2, shards.size());
+		assertEquals(Arrays.asList("A#a", "A#d", "A#e"), shards.get(0).tests);
+		assertEquals(14000, shards.get(0).estimatedMillis);
+		assertEquals(Arrays.asList("A#b", "A#c", "A#f"), shards.get(1).tests);
+		assertEquals(13000, shards.get(1).estimatedMillis);
+	}
+	
+	@Test
+	public void planPlacesEveryTestOnceAndStaysBalanced() {
+		TestDurations history = new TestDurations();
+		List<String> tests = new ArrayList<String>();
+		long total = 0, longest = 0;
+		for (int i = 0; i < 200; i++) {
+			final long millis = 500 + (i * 7919) % 20000;
+			tests.add(String.format("T%03d#test", i));
+			history.record(tests.get(i), millis);
+			total += millis;
+			longest = Math.max(longest, millis);
+		}
+		
+		List<Shard> shards = ShardPlanner.plan(tests, history, 7);
+		List<String> placed = new ArrayList<String>();
+		long min = Long.MAX_VALUE, max = 0, sum = 0;
+		for (Shard shard : shards) {
+			placed.addAll(shard.tests);
+			min = Math.min(min, shard.estimatedMillis);
+			max = Math.max(max, shard.estimatedMillis);
+			sum += shard.estimatedMillis;
+		}
+		Collections.sort(placed);
+		assertEquals(tests, placed);
+		assertEquals(total, sum);
+		// LPT's guarantee: no shard ends up more than one test's worth above the least loaded
+		assertTrue(max - min <= longest);
+	}
+	
+	@Test
+	public void planDoesNotDependOnTestOrder() {
+		TestDurations history = history("A#a", 3000, "A#b", 3000, "B#a", 3000, "B#b", 1000);
+		List<String> tests = Arrays.asList("A#a", "A#b", "B#a", "B#b", "C#new");
+		List<String> reversed = new ArrayList<String>(tests);
+		Collections.reverse(reversed);
+		
+		List<Shard> forward = ShardPlanner.plan(tests, history, 3), backward = ShardPlanner.plan(reversed, history, 3);
+		for (int i = 0; i < 3; i++)
+			assertEquals(forward.get(i).tests, backward.get(i).tests);
+	}
+	
+	@Test
+	public void estimatesUnknownTestsAtTheMedian() {
+		TestDurations history = history("A#a", 100, "A#b", 200, "A#c", 900);
+		List<Shard> shards = ShardPlanner.plan(Arrays.asList("A#a", "A#b", "A#c", "B#new", "B#newer"), history, 1);
+		assertEquals(100 + 200 + 900 + 200 + 200, shards.get(0).estimatedMillis);
+	}
+	
+	@Test
+	public void estimatesEveryTestTheSameWithoutHistory() {
+		List<Shard> shards = ShardPlanner.plan(Arrays.asList("A#a", "A#b", "A#c", "A#d"), new TestDurations(), 2);
+		assertEquals(2, shards.get(0).tests.size());
+		assertEquals(2, shards.get(1).tests.size());
+		assertEquals(shards.get(0).estimatedMillis, shards.get(1).estimatedMillis);
+	}
+	
+	@Test
+	public void runnerArgumentNamesThePlanAndTheShard() {
+		List<String> tests = new ArrayList<String>();
+		for (int i = 0; i < 500; i++)
+			tests.add(String.format("com.example.LongSuiteTest#test%03d", i));
+		List<Shard> shards = ShardPlanner.plan(tests, new TestDurations(), 2);
+		
+		// the same length however many tests the shard has
+		assertEquals("-e shardPlan /data/local/tmp/shards.tsv -e shardIndex 0", shards.get(0).toRunnerArgument("/data/local/tmp/shards.tsv"));
+		assertEquals("-e shardPlan /data/local/tmp/shards.tsv -e shardIndex 1", shards.get(1).toRunnerArgument("/data/local/tmp/shards.tsv"));
+	}
+	
+	@Test
+	public void planFileRunsEachTestInItsOwnShard() throws Exception {
+		List<String> tests = Arrays.asList("com.example.LoginTest#testLogin", "com.example.LoginTest#testLogout",
+			"com.example.CheckoutTest#testCheckout", "com.example.CheckoutTest#testSharedStep");
+		List<Shard> shards = ShardPlanner.plan(tests, history("com.example.LoginTest#testLogin", 5000), 3);
+		
+		File file = File.createTempFile("shards", ".tsv");
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				ShardPlanner.toPlan(shards).write(out);
+			} finally {
+				out.close();
+			}
+			ShardPlan plan = ShardPlan.read(file);
+			assertEquals(tests.size(), plan.size());
+			
+			for (Shard shard : shards) {
+				for (String test : tests) {
+					final String[] parts = test.split("#");
+					assertEquals(test + " in shard " + shard.index, shard.tests.contains(test), plan.accepts(shard.index, parts[0], parts[1]));
+				}
+			}
+			// added since the plan was made
+			assertTrue(plan.accepts(0, "com.example.NewTest", "testNew"));
+			assertFalse(plan.accepts(1, "com.example.NewTest", "testNew"));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsZeroShards() {
+		ShardPlanner.plan(Arrays.asList("A#a"), new TestDurations(), 0);
+	}
+	
+	@Test
+	public void discoversTestsFromGivenLocations() throws Exception {
+		File classes = new File(System.getProperty("testdata.dir"));
+		List<String> tests = ShardPlanner.discover(ShardPlanner.classLoaderFor(Arrays.asList(classes)), ShardPlanner.classNamesIn(classes));
+		assertEquals(Arrays.asList("com.example.CheckoutTest#testCheckout", "com.example.CheckoutTest#testSharedStep",
+			"com.example.LoginTest#testLogin", "com.example.LoginTest#testLogout"), tests);
+	}
+	
+	@Test
+	public void discoveryFailsOnClassesItCannotLoad() throws Exception {
+		File classes = new File(System.getProperty("testdata.dir"));
+		List<String> names = ShardPlanner.classNamesIn(classes);
+		
+		// the planner's own class path doesn't have them
+		try {
+			ShardPlanner.discover(ShardPlanner.class.getClassLoader(), names);
+			fail("Discovered tests the class loader can't see.");
+		} catch (ClassNotFoundException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("com.example.LoginTest"));
+		}
+		
+		names.add("com.example.Gone");
+		try {
+			ShardPlanner.discover(ShardPlanner.classLoaderFor(Arrays.asList(classes)), names);
+			fail("Skipped a class that doesn't exist.");
+		} catch (ClassNotFoundException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("com.example.Gone"));
+			assertTrue(e.getMessage(), !e.getMessage().contains("com.example.LoginTest"));
+		}
+	}
+}
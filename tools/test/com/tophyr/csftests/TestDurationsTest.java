@@ -0,0 +1,72 @@
+package com.tophyr.csftests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class TestDurationsTest {
+	
+	@Test
+	public void weightsRecentRuns() {
+		TestDurations durations = new TestDurations();
+		assertEquals(-1, durations.estimate("A#a"));
+		durations.record("A#a", 1000);
+		assertEquals(1000, durations.estimate("A#a"));
+		durations.record("A#a", 2000);
+		assertEquals(1300, durations.estimate("A#a"));
+	}
+	
+	@Test
+	public void medianOfEstimates() {
+		TestDurations durations = new TestDurations();
+		assertEquals(42, durations.medianEstimate(42));
+		durations.record("A#a", 900);
+		durations.record("A#b", 100);
+		durations.record("A#c", 200);
+		assertEquals(200, durations.medianEstimate(42));
+	}
+	
+	@Test
+	public void recordsPerTestLogcatLines() throws Exception {
+		String logcat =
+			"10-18 10:00:01.000  1234  1250 I CSFStats: {\"name\":\"com.example.LoginTest#testLogin\",\"families\":{\"wait\":{\"count\":1,\"totalMs\":2,\"maxMs\":2,\"histogramUs\":[0,1]}},\"counters\":{\"tests\":1,\"durationMs\":4200}}\n" +
+			"10-18 10:00:01.000  1234  1250 I CSFStats: {\"name\":\"run\",\"families\":{},\"counters\":{\"tests\":2,\"durationMs\":9000}}\n" +
+			"10-18 10:00:02.000  1234  1250 I CSFStats: {\"name\":\"com.example.Odd\\\"Name#test\",\"families\":{},\"counters\":{\"tests\":1,\"durationMs\":300}}\n" +
+			"10-18 10:00:02.000  1234  1250 D Other: unrelated\n";
+		
+		TestDurations durations = new TestDurations();
+		assertEquals(2, durations.recordLogcat(new BufferedReader(new StringReader(logcat))));
+		assertEquals(2, durations.size());
+		assertEquals(4200, durations.estimate("com.example.LoginTest#testLogin"));
+		assertEquals(300, durations.estimate("com.example.Odd\"Name#test"));
+		assertEquals(-1, durations.estimate("run"));
+	}
+	
+	@Test
+	public void roundTripsThroughFile() throws Exception {
+		TestDurations durations = new TestDurations();
+		durations.record("A#a", 1000);
+		durations.record("A#a", 2000);
+		durations.record("B#b", 500);
+		
+		File file = File.createTempFile("durations", ".tsv");
+		try {
+			durations.write(file);
+			TestDurations read = TestDurations.read(file);
+			assertEquals(2, read.size());
+			assertEquals(1300, read.estimate("A#a"));
+			assertEquals(500, read.estimate("B#b"));
+		} finally {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void missingFileIsEmptyHistory() throws Exception {
+		assertEquals(0, TestDurations.read(new File("no-such-durations.tsv")).size());
+	}
+}
@@ -0,0 +1,9 @@
+package com.example;
+
+import com.tophyr.csftests.CSFActivityTestCase;
+
+public abstract class BaseFlowTest extends CSFActivityTestCase {
+	
+	public void testSharedStep() {
+	}
+}
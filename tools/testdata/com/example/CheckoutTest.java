@@ -0,0 +1,7 @@
+package com.example;
+
+public class CheckoutTest extends BaseFlowTest {
+	
+	public void testCheckout() {
+	}
+}
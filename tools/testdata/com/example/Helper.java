@@ -0,0 +1,7 @@
+package com.example;
+
+public class Helper {
+	
+	public void testNotATest() {
+	}
+}
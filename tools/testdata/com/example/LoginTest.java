@@ -0,0 +1,21 @@
+package com.example;
+
+import com.tophyr.csftests.CSFActivityTestCase;
+
+public class LoginTest extends CSFActivityTestCase {
+	
+	public void testLogin() {
+	}
+	
+	public void testLogout() {
+	}
+	
+	public void testWithArgument(int attempt) {
+	}
+	
+	public static void testStatic() {
+	}
+	
+	public void login() {
+	}
+}
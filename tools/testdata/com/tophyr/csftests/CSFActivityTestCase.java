@@ -0,0 +1,5 @@
+package com.tophyr.csftests;
+
+/** Stands in for the real test case class, which ShardPlanner only knows by name. */
+public abstract class CSFActivityTestCase {
+}